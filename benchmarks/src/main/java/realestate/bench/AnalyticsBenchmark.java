@@ -0,0 +1,56 @@
+package realestate.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.ListingGenerator;
+import realestate.PortfolioAnalytics;
+import realestate.PropertyStore;
+
+/**
+ * Price percentiles of a portfolio: {@link PortfolioAnalytics} (sketches and bounded rankings)
+ * against copying every total price into an array and sorting it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Drealestate.log.file=realestate-bench.log"})
+public class AnalyticsBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private PropertyStore store;
+
+    @Setup
+    public void setUp(Logging logging) {
+        store = new PropertyStore();
+        new ListingGenerator(ListingGenerator.DEFAULT_SEED).generate(size, store::add);
+    }
+
+    @Benchmark
+    public double analytics() {
+        return PortfolioAnalytics.of(store, PortfolioAnalytics.DEFAULT_K).totalPricePercentile(0.99);
+    }
+
+    @Benchmark
+    public double exactSort() {
+        int[] ids = store.ids();
+        long[] totals = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) totals[i] = store.totalPrice(ids[i]);
+        Arrays.sort(totals);
+        return totals[(int) Math.ceil(0.99 * totals.length) - 1];
+    }
+}
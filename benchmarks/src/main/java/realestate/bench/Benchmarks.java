@@ -0,0 +1,35 @@
+package realestate.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of {@code benchmarks.jar}: the JMH command line, except that results are
+ * written as JSON to {@code jmh-result.json} unless {@code -rf}/{@code -rff} say otherwise,
+ * so every run leaves a file that can be diffed against a run of another commit.
+ * <p>
+ * Examples:
+ * <pre>
+ *   java -jar benchmarks/target/benchmarks.jar                       # everything
+ *   java -jar benchmarks/target/benchmarks.jar Pricing -p logLevel=OFF
+ *   java -jar benchmarks/target/benchmarks.jar Ingest -p lines=10000,100000 -rff ingest.json
+ * </pre>
+ */
+public class Benchmarks {
+
+    /** Where results go when the command line does not say. */
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (!cmd.getResultFormat().hasValue()) options.resultFormat(ResultFormatType.JSON);
+        if (!cmd.getResult().hasValue()) options.result(DEFAULT_RESULT_FILE);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,78 @@
+package realestate.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.BulkDiscount;
+import realestate.ListingGenerator;
+import realestate.PropertyStore;
+import realestate.PropertyTable;
+
+/**
+ * A discount on every listing: one {@link PropertyStore#discount} call per listing against
+ * {@link PropertyStore#discountAll}, and {@link PropertyTable#discountAll} on the bare price
+ * column. The {@code Vector} variants fork with the incubator module, so the bulk paths use
+ * the vector kernel. The discount is 0%, which leaves prices where they are but still
+ * re-prices and re-indexes every listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Drealestate.log.file=realestate-bench.log"})
+public class BulkDiscountBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private PropertyStore store;
+    private PropertyTable table;
+
+    @Setup
+    public void setUp(Logging logging) {
+        store = new PropertyStore();
+        new ListingGenerator(ListingGenerator.DEFAULT_SEED).generate(size, store::add);
+        table = PropertyTable.of(store);
+    }
+
+    @Benchmark
+    public long storeOneByOne() {
+        long sum = 0;
+        for (int id : store.ids()) sum += store.discount(id, 0);
+        return sum;
+    }
+
+    @Benchmark
+    public int storeBulk() {
+        return store.discountAll(BulkDiscount.Selection.all(), 0);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Drealestate.log.file=realestate-bench.log",
+            "--add-modules=jdk.incubator.vector"})
+    public int storeBulkVector() {
+        return store.discountAll(BulkDiscount.Selection.all(), 0);
+    }
+
+    @Benchmark
+    public int tableBulk() {
+        return table.discountAll(BulkDiscount.Selection.all(), 0);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Drealestate.log.file=realestate-bench.log",
+            "--add-modules=jdk.incubator.vector"})
+    public int tableBulkVector() {
+        return table.discountAll(BulkDiscount.Selection.all(), 0);
+    }
+}
@@ -0,0 +1,68 @@
+package realestate.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.ListingGenerator;
+import realestate.PropertyStore;
+import realestate.RealEstate;
+
+/**
+ * {@link RealEstate#compareTo} and building a sorted collection of {@code size} listings:
+ * the price-ordered {@link TreeSet} the agent used to keep, and the {@link PropertyStore}
+ * that replaced it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Drealestate.log.file=realestate-bench.log")
+public class ComparisonBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    private List<RealEstate> listings;
+    private int next;
+
+    @Setup
+    public void setUp(Logging logging) {
+        listings = new ArrayList<>(size);
+        new ListingGenerator(ListingGenerator.DEFAULT_SEED).generate(size, listings::add);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int compareTo() {
+        int i = next;
+        next = i + 2 < size ? i + 1 : 0;
+        return listings.get(i).compareTo(listings.get(i + 1));
+    }
+
+    @Benchmark
+    public int treeSetInsert() {
+        TreeSet<RealEstate> set = new TreeSet<>();
+        for (RealEstate r : listings) set.add(r);
+        return set.size();
+    }
+
+    @Benchmark
+    public int propertyStoreInsert() {
+        PropertyStore store = new PropertyStore();
+        for (RealEstate r : listings) store.add(r);
+        return store.size();
+    }
+}
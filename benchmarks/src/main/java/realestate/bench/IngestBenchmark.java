@@ -0,0 +1,88 @@
+package realestate.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.ListingDeduplicator;
+import realestate.ListingGenerator;
+import realestate.ListingParser;
+import realestate.LoggerConfig;
+import realestate.ParallelListingLoader;
+import realestate.PropertyStore;
+
+/**
+ * Loading a generated file of {@code lines} lines into a {@link PropertyStore}, the way
+ * {@code RealEstateAgent.loadFromFile} does: on the calling thread ({@code parallelism=1})
+ * or with the {@link ParallelListingLoader} on every core ({@code parallelism=0}).
+ * Rejected lines are logged at WARNING like the agent does. With {@code dedup=EXACT} or
+ * {@code dedup=APPROXIMATE} repeated listings are dropped by a {@link ListingDeduplicator},
+ * as {@code --dedup} and {@code --dedup=approximate} do.
+ * <p>
+ * Input files are generated with {@link ListingGenerator#DEFAULT_SEED} into
+ * {@code bench-data/} on first use and reused afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Drealestate.log.file=realestate-bench.log"})
+public class IngestBenchmark {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int lines;
+
+    @Param({"1", "0"})
+    public int parallelism;
+
+    @Param({"NONE", "EXACT", "APPROXIMATE"})
+    public String dedup;
+
+    private Path file;
+
+    @Setup
+    public void setUp(Logging logging) throws IOException {
+        file = Paths.get("bench-data", "listings-" + lines + "-" + ListingGenerator.DEFAULT_SEED + ".txt");
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.getParent());
+            new ListingGenerator(ListingGenerator.DEFAULT_SEED).write(file, lines);
+        }
+    }
+
+    @Benchmark
+    public PropertyStore load() throws IOException {
+        PropertyStore store = new PropertyStore();
+        ListingDeduplicator deduplicator = switch (dedup) {
+            case "EXACT" -> ListingDeduplicator.exact();
+            case "APPROXIMATE" -> ListingDeduplicator.approximate(lines, ListingDeduplicator.DEFAULT_FALSE_POSITIVE_RATE);
+            default -> null;
+        };
+        if (parallelism == 1) {
+            new ListingParser(deduplicator == null ? store::add : deduplicator.filter(store::add),
+                    IngestBenchmark::logError).parse(file);
+        } else {
+            new ParallelListingLoader().load(file, deduplicator, store::add, IngestBenchmark::logError);
+        }
+        return store;
+    }
+
+    private static void logError(long lineNumber, ListingParser.ParseError error, String line, String detail) {
+        log.warning(() -> "Skipping line " + lineNumber + " (" + error + "): " + detail);
+    }
+}
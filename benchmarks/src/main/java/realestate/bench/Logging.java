@@ -0,0 +1,25 @@
+package realestate.bench;
+
+import java.util.logging.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import realestate.LoggerConfig;
+
+/**
+ * Runs every benchmark that uses it twice: with the {@code realestate} logger off and with
+ * it logging everything (FINEST) through the asynchronous handler. The log goes to
+ * {@code realestate-bench.log}; see the {@code @Fork} settings of the benchmarks.
+ */
+@State(Scope.Benchmark)
+public class Logging {
+
+    @Param({"OFF", "FINEST"})
+    public String logLevel;
+
+    @Setup
+    public void setUp() {
+        LoggerConfig.getLogger().setLevel(Level.parse(logLevel));
+    }
+}
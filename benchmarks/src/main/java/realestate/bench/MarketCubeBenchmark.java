@@ -0,0 +1,79 @@
+package realestate.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.Genre;
+import realestate.ListingGenerator;
+import realestate.MarketCube;
+import realestate.PropertyStore;
+import realestate.RealEstate;
+
+/**
+ * Aggregates of one city, genre and room bucket: looked up in a {@link MarketCube}, computed
+ * again after a discount invalidated the cell, and found by scanning every listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Drealestate.log.file=realestate-bench.log"})
+public class MarketCubeBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private PropertyStore store;
+    private MarketCube cube;
+    private int discounted;
+
+    @Setup
+    public void setUp(Logging logging) {
+        store = new PropertyStore();
+        new ListingGenerator(ListingGenerator.DEFAULT_SEED).generate(size, store::add);
+        cube = new MarketCube(store, MarketCube.DEFAULT_CAPACITY);
+        discounted = store.idsInCity("Budapest")[0];
+    }
+
+    @Benchmark
+    public long build() {
+        MarketCube built = new MarketCube(store, MarketCube.DEFAULT_CAPACITY);
+        built.detach();
+        return built.cellCount();
+    }
+
+    @Benchmark
+    public long cachedCell() {
+        return cube.cell("Budapest", Genre.CONDOMINIUM, 3).totalPriceSum();
+    }
+
+    @Benchmark
+    public long invalidatedCell() {
+        // A zero discount changes no price but still invalidates the cell
+        store.discount(discounted, 0);
+        RealEstate p = store.get(discounted);
+        return cube.cell(p.getCity(), p.getGenre(), p.getNumberOfRooms()).totalPriceSum();
+    }
+
+    @Benchmark
+    public long scan() {
+        long sum = 0;
+        for (int id : store.idsInCity("Budapest")) {
+            RealEstate p = store.get(id);
+            if (p.getGenre() == Genre.CONDOMINIUM && MarketCube.roomBucket(p.getNumberOfRooms()) == 3) {
+                sum += store.totalPrice(id);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,61 @@
+package realestate.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.Genre;
+import realestate.Panel;
+import realestate.RealEstate;
+
+/**
+ * {@link RealEstate#getTotalPrice()} and {@link Panel#getTotalPrice()}, served from the cache
+ * and recomputed. Recomputing is forced with {@code makeDiscount(0)}, which leaves the price
+ * as it is but drops the cached total.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Drealestate.log.file=realestate-bench.log")
+public class PricingBenchmark {
+
+    private RealEstate realEstate;
+    private Panel panel;
+
+    @Setup
+    public void setUp(Logging logging) {
+        realEstate = new RealEstate("Budapest", 250000, 100, 4, Genre.CONDOMINIUM);
+        panel = new Panel("Debrecen", 120000, 35, 2, Genre.CONDOMINIUM, 0, true);
+    }
+
+    @Benchmark
+    public long realEstateCached() {
+        return realEstate.getTotalPrice();
+    }
+
+    @Benchmark
+    public long panelCached() {
+        return panel.getTotalPrice();
+    }
+
+    @Benchmark
+    public long realEstateRecomputed() {
+        realEstate.makeDiscount(0);
+        return realEstate.getTotalPrice();
+    }
+
+    @Benchmark
+    public long panelRecomputed() {
+        panel.makeDiscount(0);
+        return panel.getTotalPrice();
+    }
+}
@@ -0,0 +1,82 @@
+package realestate.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.ListingGenerator;
+import realestate.PropertyStore;
+import realestate.ReportEngine;
+import realestate.ReportWriter;
+
+/**
+ * The report of {@code generateReport}, computed and formatted, over generated portfolios
+ * of increasing size: built as one string, and streamed through a {@link ReportWriter} into a
+ * channel that discards it. Console and file output are left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Drealestate.log.file=realestate-bench.log"})
+public class ReportBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    private PropertyStore store;
+
+    @Setup
+    public void setUp(Logging logging) {
+        store = new PropertyStore();
+        new ListingGenerator(ListingGenerator.DEFAULT_SEED).generate(size, store::add);
+    }
+
+    @Benchmark
+    public String generateReport() {
+        return ReportEngine.compute(store).toText();
+    }
+
+    @Benchmark
+    public long streamReport() throws IOException {
+        Discard out = new Discard();
+        try (ReportWriter writer = new ReportWriter(ReportWriter.Format.TEXT, out)) {
+            ReportEngine.write(store, writer);
+        }
+        return out.written;
+    }
+
+    /** Counts what is written and drops it. */
+    private static final class Discard implements WritableByteChannel {
+        long written;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
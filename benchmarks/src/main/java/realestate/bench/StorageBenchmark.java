@@ -0,0 +1,62 @@
+package realestate.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import realestate.Genre;
+import realestate.ListingGenerator;
+import realestate.PropertyStore;
+import realestate.Query;
+
+/**
+ * The same portfolio kept as listing objects on the heap and as rows outside it: a full
+ * garbage collection, whose pause grows with the objects it has to trace, the summary of
+ * every listing, and a query that reads the floor of every Panel flat of a city.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-XX:MaxDirectMemorySize=3g", "-Drealestate.log.file=realestate-bench.log"})
+public class StorageBenchmark {
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public String storage;
+
+    @Param({"1000000", "5000000"})
+    public int size;
+
+    private PropertyStore store;
+
+    @Setup
+    public void setUp(Logging logging) {
+        store = storage.equals("OFF_HEAP") ? PropertyStore.offHeap() : new PropertyStore();
+        new ListingGenerator(ListingGenerator.DEFAULT_SEED).generate(size, store::add);
+    }
+
+    @Benchmark
+    public int fullGc() {
+        System.gc();
+        return store.size();
+    }
+
+    @Benchmark
+    public long summary() {
+        return Query.on(store).summary().totalPrice();
+    }
+
+    @Benchmark
+    public int panelQuery() {
+        return Query.on(store).city("Budapest").genre(Genre.CONDOMINIUM).floorBetween(2, 6).count();
+    }
+}
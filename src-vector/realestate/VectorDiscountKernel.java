@@ -0,0 +1,28 @@
+package realestate;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link BulkDiscount} kernel on the incubating Vector API. Kept out of {@code src/} so the
+ * application still compiles and runs without {@code --add-modules jdk.incubator.vector};
+ * BulkDiscount loads it by name only when the module is present.
+ * <p>
+ * Lane-wise multiplication and division round like their scalar forms, so every price comes
+ * out exactly as {@code price * keep / 100.0}.
+ */
+final class VectorDiscountKernel implements BulkDiscount.Kernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void discount(double[] prices, int from, int to, double keep) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, prices, i).mul(keep).div(100.0).intoArray(prices, i);
+        }
+        for (; i < to; i++) {
+            prices[i] = prices[i] * keep / 100.0;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package realestate;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that hands records to one background writer thread.
+ * <p>
+ * {@link #publish} only puts the record into a bounded {@link LogRingBuffer}; formatting
+ * (including message parameters) and file output happen on the writer thread, which drains
+ * the buffer in batches and writes each batch to the log file with a single flush. Extra
+ * handlers, like a console handler, are fed from the writer thread too, so no logging
+ * thread ever waits on I/O or on another thread's lock.
+ * <p>
+ * When the buffer is full the {@link OverflowPolicy} decides: {@code DROP} discards the record
+ * and counts it (the count is written to the log once there is room again), {@code BLOCK}
+ * makes the caller wait for room. Should the writer thread have stopped, because the log file
+ * could not be written, nothing will make room again, so records are dropped and counted
+ * under either policy. A failing extra handler is reported and does not stop the writer.
+ */
+public final class AsyncLogHandler extends Handler {
+
+    /** What {@link #publish} does when the buffer is full. */
+    public enum OverflowPolicy { DROP, BLOCK }
+
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final LogRingBuffer<LogRecord> buffer;
+    private final OverflowPolicy policy;
+    private final boolean inferCaller;
+    private final Writer out;
+    private final Handler[] delegates;
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private volatile boolean writerIdle;
+    private volatile boolean closed;
+
+    /**
+     * Creates the handler and starts its writer thread.
+     * @param file the log file, appended to
+     * @param capacity the number of records the buffer holds
+     * @param policy what to do when the buffer is full
+     * @param inferCaller whether to record the calling class and method; this walks the stack
+     *                    on every logged record, so without it the logger name is shown instead
+     * @param delegates handlers that also get every record, from the writer thread
+     * @throws IOException if the log file cannot be opened
+     */
+    public AsyncLogHandler(String file, int capacity, OverflowPolicy policy, boolean inferCaller,
+                           Handler... delegates) throws IOException {
+        this.buffer = new LogRingBuffer<>(capacity);
+        this.policy = policy;
+        this.inferCaller = inferCaller;
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 1 << 16);
+        this.delegates = delegates.clone();
+        this.writer = new Thread(this::drainLoop, "realestate-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) return;
+        if (inferCaller) {
+            record.getSourceClassName(); // must happen on the logging thread
+        } else {
+            record.setSourceClassName(null);
+        }
+
+        if (!buffer.offer(record)) {
+            if (policy == OverflowPolicy.DROP) {
+                dropped.incrementAndGet();
+                return;
+            }
+            while (!buffer.offer(record)) {
+                if (closed) return;
+                if (!writer.isAlive()) {
+                    dropped.incrementAndGet();
+                    reportError("Log writer stopped, record dropped", null, ErrorManager.WRITE_FAILURE);
+                    return;
+                }
+                LockSupport.unpark(writer);
+                Thread.onSpinWait();
+            }
+        }
+        published.incrementAndGet();
+        if (writerIdle) LockSupport.unpark(writer);
+    }
+
+    /** Waits until every record published so far has been written. */
+    @Override
+    public void flush() {
+        long target = published.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (written.get() < target && writer.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+        }
+    }
+
+    /** Writes what is left, stops the writer thread and closes the file. */
+    @Override
+    public void close() {
+        if (closed) return;
+        flush();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Handler h : delegates) h.close();
+    }
+
+    /** @return the number of records dropped because the buffer was full */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void drainLoop() {
+        long reportedDrops = 0;
+        try {
+            while (true) {
+                int n = 0;
+                LogRecord record;
+                while (n < BATCH_SIZE && (record = buffer.poll()) != null) {
+                    write(record);
+                    n++;
+                }
+
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    LogRecord note = new LogRecord(Level.WARNING, (drops - reportedDrops) + " log records dropped, log buffer full");
+                    note.setLoggerName("realestate");
+                    note.setSourceClassName(null);
+                    write(note);
+                    reportedDrops = drops;
+                }
+
+                if (n > 0) {
+                    out.flush();
+                    for (Handler h : delegates) {
+                        try {
+                            h.flush();
+                        } catch (RuntimeException e) {
+                            reportError("Could not flush log handler " + h, e, ErrorManager.FLUSH_FAILURE);
+                        }
+                    }
+                    written.addAndGet(n);
+                    continue;
+                }
+                if (closed) break;
+                writerIdle = true;
+                if (buffer.isEmpty()) LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                writerIdle = false;
+            }
+        } catch (IOException e) {
+            reportError("Log writer failed", e, ErrorManager.WRITE_FAILURE);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                reportError("Could not close log file", e, ErrorManager.CLOSE_FAILURE);
+            }
+        }
+    }
+
+    private void write(LogRecord record) throws IOException {
+        Formatter formatter = getFormatter();
+        String text;
+        try {
+            text = formatter.format(record);
+        } catch (RuntimeException e) {
+            reportError("Could not format log record", e, ErrorManager.FORMAT_FAILURE);
+            return;
+        }
+        out.write(text);
+        for (Handler h : delegates) {
+            try {
+                if (h.isLoggable(record)) h.publish(record);
+            } catch (RuntimeException e) {
+                reportError("Could not publish to log handler " + h, e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package realestate;
+
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * Discounts many listings in one operation, such as "10% off every condominium in Debrecen
+ * on floor 2 or below".
+ * <p>
+ * The prices per sqm of the selected listings are processed as a {@code double[]} column in
+ * chunks, in parallel for large selections. When the {@code jdk.incubator.vector} module is
+ * present ({@code --add-modules jdk.incubator.vector}) and the vector kernel was built, the
+ * column is discounted several lanes at a time; otherwise with a plain loop. Both compute
+ * {@code price * (100 - percentage) / 100.0} per listing, as {@link RealEstate#makeDiscount}
+ * does, so the results are the same bit for bit. {@code -Drealestate.vector=false} forces the
+ * plain loop.
+ * <p>
+ * Use {@link PropertyStore#discountAll} or {@link PropertyTable#discountAll}, which also bring
+ * the total prices up to date.
+ */
+public final class BulkDiscount {
+
+    /** Listings per chunk. */
+    static final int CHUNK = 4096;
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    /** Discounts a range of a price column by the factor {@code keep / 100}. */
+    interface Kernel {
+        void discount(double[] prices, int from, int to, double keep);
+    }
+
+    /** The plain loop. */
+    static final Kernel SCALAR = (prices, from, to, keep) -> {
+        for (int i = from; i < to; i++) {
+            prices[i] = prices[i] * keep / 100.0;
+        }
+    };
+
+    private static final Kernel KERNEL = loadKernel();
+
+    /**
+     * The listings a bulk discount applies to. A criterion that is not set matches every
+     * listing; a floor limit matches Panel flats only, since other listings have no floor.
+     * @param city the city, matched case-insensitively, or null for any
+     * @param genre the genre, or null for any
+     * @param maxFloor the highest floor, inclusive, or {@link #ANY_FLOOR}
+     */
+    public record Selection(String city, Genre genre, int maxFloor) {
+
+        /** Value of {@code maxFloor} for no floor limit. */
+        public static final int ANY_FLOOR = Integer.MAX_VALUE;
+
+        /** @return a selection of every listing */
+        public static Selection all() {
+            return new Selection(null, null, ANY_FLOOR);
+        }
+
+        /**
+         * @param name a city name
+         * @return this selection narrowed to one city
+         */
+        public Selection inCity(String name) {
+            return new Selection(name, genre, maxFloor);
+        }
+
+        /**
+         * @param type a genre
+         * @return this selection narrowed to one genre
+         */
+        public Selection ofGenre(Genre type) {
+            return new Selection(city, type, maxFloor);
+        }
+
+        /**
+         * @param floor the highest floor, inclusive
+         * @return this selection narrowed to Panel flats on that floor or below
+         */
+        public Selection onFloorAtMost(int floor) {
+            return new Selection(city, genre, floor);
+        }
+
+        /** @return whether the selection has no criteria */
+        public boolean isAll() {
+            return city == null && genre == null && maxFloor == ANY_FLOOR;
+        }
+
+        /**
+         * @param property a listing
+         * @return whether the listing is selected
+         */
+        public boolean matches(RealEstate property) {
+            return property instanceof Panel panel
+                    ? matches(property.getCity(), property.getGenre(), true, panel.getFloor())
+                    : matches(property.getCity(), property.getGenre(), false, 0);
+        }
+
+        /**
+         * @param cityName the city of a listing
+         * @param type the genre of the listing
+         * @param panel whether it is a Panel flat
+         * @param floor its floor, for Panels
+         * @return whether the listing is selected
+         */
+        public boolean matches(String cityName, Genre type, boolean panel, int floor) {
+            if (genre != null && type != genre) return false;
+            if (maxFloor != ANY_FLOOR && (!panel || floor > maxFloor)) return false;
+            return city == null || (cityName != null && cityName.toLowerCase(Locale.ROOT).equals(city.toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    private BulkDiscount() {
+    }
+
+    /** @return whether discounts run on the vector kernel */
+    public static boolean vectorized() {
+        return KERNEL != SCALAR;
+    }
+
+    /**
+     * Discounts a range of a price column, as {@link RealEstate#makeDiscount} would each price.
+     * @param prices prices per sqm
+     * @param from the first index, inclusive
+     * @param to the last index, exclusive
+     * @param percentage the percentage discount to apply
+     */
+    public static void discount(double[] prices, int from, int to, int percentage) {
+        double keep = 100 - percentage;
+        chunks(to - from).forEach(c -> {
+            int start = from + c * CHUNK;
+            KERNEL.discount(prices, start, Math.min(to, start + CHUNK), keep);
+        });
+    }
+
+    /**
+     * Discounts listings and computes their new total prices, one chunk at a time: the prices
+     * of a chunk are gathered into a column, discounted, written back and re-priced.
+     * @param listings listings by id
+     * @param ids the ids of the listings to discount, distinct
+     * @param percentage the percentage discount to apply
+     * @return the new total prices, in the order of {@code ids}
+     */
+    static long[] discount(RealEstate[] listings, int[] ids, int percentage) {
+        double keep = 100 - percentage;
+        double[] prices = new double[ids.length];
+        long[] totals = new long[ids.length];
+        chunks(ids.length).forEach(c -> {
+            int from = c * CHUNK;
+            int to = Math.min(ids.length, from + CHUNK);
+            for (int i = from; i < to; i++) prices[i] = listings[ids[i]].getPrice();
+            KERNEL.discount(prices, from, to, keep);
+            for (int i = from; i < to; i++) {
+                RealEstate property = listings[ids[i]];
+                property.setDiscountedPrice(prices[i]);
+                totals[i] = property.getTotalPrice();
+            }
+        });
+        log.fine(() -> "Bulk discount of " + percentage + "% on " + ids.length + " listings"
+                + (vectorized() ? " (vector kernel)" : ""));
+        return totals;
+    }
+
+    private static IntStream chunks(int length) {
+        IntStream chunks = IntStream.range(0, (length + CHUNK - 1) / CHUNK);
+        return length >= PropertyStore.PARALLEL_THRESHOLD ? chunks.parallel() : chunks;
+    }
+
+    private static Kernel loadKernel() {
+        if (!Boolean.parseBoolean(System.getProperty("realestate.vector", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            return (Kernel) Class.forName("realestate.VectorDiscountKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.log(Level.WARNING, "Vector kernel unavailable, discounting with the plain loop: " + e, e);
+            return SCALAR;
+        }
+    }
+}
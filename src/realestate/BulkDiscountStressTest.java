@@ -0,0 +1,96 @@
+package realestate;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+
+/**
+ * Equivalence test of {@link PropertyStore#discountAll}: two stores get the same generated
+ * listings, one is discounted with random selections in bulk and the other listing by listing
+ * with {@link PropertyStore#discount}, and the prices, the indexed totals and the price order
+ * of the two must be the same bit for bit. Stores on the heap and off it are both tested,
+ * small ones and ones large enough to be discounted in parallel.
+ * <p>
+ * Run it with {@code --add-modules jdk.incubator.vector} to test the vector kernel as well as
+ * the plain loop; the kernel must then be on the class path.
+ * <p>
+ * Usage: {@code java realestate.BulkDiscountStressTest [rounds]}, 40 rounds by default.
+ * Exits with status 1 on the first difference.
+ */
+public class BulkDiscountStressTest {
+
+    private static final String[] CITIES = {"Debrecen", "budapest", "SZEGED", "Pécs", null};
+    private static final int DISCOUNTS = 5;
+    private static final int LARGE = 120_000;
+
+    private int discounted;
+    private int listings;
+
+    public static void main(String[] args) {
+        LoggerConfig.getLogger().setLevel(Level.OFF);
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        boolean vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        BulkDiscountStressTest test = new BulkDiscountStressTest();
+        try {
+            check(BulkDiscount.vectorized() == vectorModule, "vector module present: " + vectorModule
+                    + ", vector kernel used: " + BulkDiscount.vectorized());
+            for (int round = 0; round < rounds; round++) test.run(round);
+        } catch (AssertionError e) {
+            System.out.println("FAIL: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Bulk discount OK (" + (BulkDiscount.vectorized() ? "vector kernel" : "plain loop") + "): "
+                + test.discounted + " discounts of " + test.listings + " listings matched discounting one by one");
+    }
+
+    private void run(int round) {
+        Random random = new Random(round);
+        // The last rounds are large enough for the parallel path
+        int size = round % 8 == 7 ? LARGE : 1 + random.nextInt(3000);
+        boolean offHeap = round % 2 == 1;
+        PropertyStore bulk = offHeap ? PropertyStore.offHeap() : new PropertyStore();
+        PropertyStore single = offHeap ? PropertyStore.offHeap() : new PropertyStore();
+        new ListingGenerator(round).generate(size, bulk::add);
+        new ListingGenerator(round).generate(size, single::add);
+        listings += size;
+        for (int i = 0; i < DISCOUNTS; i++) {
+            BulkDiscount.Selection selection = BulkDiscount.Selection.all();
+            String city = CITIES[random.nextInt(CITIES.length)];
+            if (city != null) selection = selection.inCity(city);
+            if (random.nextBoolean()) selection = selection.ofGenre(Genre.values()[random.nextInt(Genre.values().length)]);
+            if (random.nextInt(3) == 0) selection = selection.onFloorAtMost(random.nextInt(5));
+            int percentage = random.nextInt(40);
+
+            int count = bulk.discountAll(selection, percentage);
+            int expected = 0;
+            for (int id : single.ids()) {
+                if (selection.matches(single.get(id))) {
+                    single.discount(id, percentage);
+                    expected++;
+                }
+            }
+            check(count == expected, "round " + round + ": " + count + " discounted in bulk, " + expected + " one by one");
+            discounted += count;
+        }
+        String at = "round " + round + (offHeap ? " off heap" : "") + ": ";
+        check(Arrays.equals(bulk.ids(), single.ids()), at + "price order differs");
+        long bulkSum = 0;
+        long singleSum = 0;
+        for (int id : bulk.ids()) {
+            RealEstate a = bulk.get(id);
+            RealEstate b = single.get(id);
+            check(Double.doubleToRawLongBits(a.getPrice()) == Double.doubleToRawLongBits(b.getPrice()),
+                    at + "price of " + id + " is " + a.getPrice() + ", discounted one by one " + b.getPrice());
+            check(bulk.totalPrice(id) == single.totalPrice(id),
+                    at + "total of " + id + " is " + bulk.totalPrice(id) + ", discounted one by one " + single.totalPrice(id));
+            check(bulk.totalPrice(id) == a.getTotalPrice(), at + "indexed total of " + id + " is stale");
+            bulkSum += bulk.totalPrice(id);
+            singleSum += single.totalPrice(id);
+        }
+        check(bulkSum == singleSum, at + "total " + bulkSum + ", discounted one by one " + singleSum);
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) throw new AssertionError(failure);
+    }
+}
@@ -0,0 +1,68 @@
+package realestate;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding of city names: every distinct name gets a small int id, handed out in
+ * order of first sight. Lookups of known names are lock-free; adding a name takes a lock.
+ */
+public class CityDictionary {
+
+    private static final CityDictionary SHARED = new CityDictionary();
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+    private volatile int size;
+
+    /** @return the dictionary listings and pricing plans share */
+    public static CityDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the id of a city, adding the city if it is new.
+     * @param city the city name, compared exactly
+     * @return the id of the city
+     */
+    public int idOf(String city) {
+        Integer id = ids.get(city);
+        return id != null ? id : add(city);
+    }
+
+    /**
+     * @param city the city name, compared exactly
+     * @return the id of the city, or -1 if it is not in the dictionary
+     */
+    public int find(String city) {
+        Integer id = ids.get(city);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param id a city id
+     * @return the city name
+     */
+    public String name(int id) {
+        if (id < 0 || id >= size) throw new IndexOutOfBoundsException("Unknown city id " + id);
+        return names[id];
+    }
+
+    /** @return the number of cities */
+    public int size() {
+        return size;
+    }
+
+    private synchronized int add(String city) {
+        Integer existing = ids.get(city);
+        if (existing != null) return existing;
+        int id = size;
+        String[] current = names;
+        if (id == current.length) current = Arrays.copyOf(current, id * 2);
+        current[id] = city;
+        names = current;
+        size = id + 1;
+        ids.put(city, id);
+        return id;
+    }
+}
@@ -0,0 +1,337 @@
+package realestate;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * Portfolio that ingest, discount, query and report threads can share.
+ * <p>
+ * Listings are never changed in place: {@link #discount} discounts a copy and swaps it in,
+ * so a listing handed to a reader does not change under it. Every listing is indexed by
+ * (total price, id) in three concurrent skip lists: all listings, per city (case-insensitive)
+ * and per {@link Genre}; a discount moves the listing in each of them.
+ * <p>
+ * Writers run concurrently. Changes to one listing are serialized on one of
+ * {@value #STRIPES} lock stripes chosen by id, and additions need no stripe at all.
+ * <p>
+ * Readers take no locks. Single-listing reads ({@link #get}, {@link #totalPrice}) read a
+ * concurrent map. Reads spanning many listings (id lists, {@link #cheapest()},
+ * {@link #report()}) are optimistic: they run only while no write is in progress and are
+ * repeated if a write started in the meantime, so they always see a consistent portfolio in
+ * which no listing is missing or seen twice. A read that keeps losing to writers falls back
+ * to briefly holding them off.
+ * <p>
+ * Listings must not be modified by callers once added.
+ */
+public class ConcurrentPortfolio {
+
+    /** Number of lock stripes for writers; a power of two. */
+    static final int STRIPES = 64;
+    /** Optimistic attempts of a read before it holds writers off. */
+    static final int OPTIMISTIC_ATTEMPTS = 4;
+
+    /** Entry of the price indexes; orders by total price, then id. */
+    private record PriceKey(long total, int id) implements Comparable<PriceKey> {
+        @Override
+        public int compareTo(PriceKey o) {
+            int c = Long.compare(total, o.total);
+            return c != 0 ? c : Integer.compare(id, o.id);
+        }
+    }
+
+    /** The current version of a listing and the total price it is indexed with. */
+    private record Slot(RealEstate listing, long total) {
+        PriceKey key(int id) {
+            return new PriceKey(total, id);
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Slot> slots = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<PriceKey> byPrice = new ConcurrentSkipListSet<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<PriceKey>> byCity = new ConcurrentHashMap<>();
+    private final Map<Genre, ConcurrentSkipListSet<PriceKey>> byGenre = new EnumMap<>(Genre.class);
+
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Writers hold the gate shared and count themselves in and out; a consistent read checks
+    // the counts, and only takes the gate exclusively after repeated interference
+    private final StampedLock gate = new StampedLock();
+    private final AtomicLong writesStarted = new AtomicLong();
+    private final AtomicLong writesFinished = new AtomicLong();
+
+    /** Creates an empty portfolio. */
+    public ConcurrentPortfolio() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+        for (Genre g : Genre.values()) byGenre.put(g, new ConcurrentSkipListSet<>());
+    }
+
+    /**
+     * Adds a listing; the portfolio owns it from now on.
+     * @param property the listing
+     * @return the id of the listing
+     */
+    public int add(RealEstate property) {
+        long total = property.getTotalPrice();
+        long stamp = beginWrite();
+        try {
+            int id = nextId.getAndIncrement();
+            Slot slot = new Slot(property, total);
+            slots.put(id, slot);
+            index(id, slot);
+            size.incrementAndGet();
+            return id;
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a listing.
+     * @param id the id of the listing
+     * @return the removed listing, or null if there is none with that id
+     */
+    public RealEstate remove(int id) {
+        long stamp = beginWrite();
+        try {
+            synchronized (stripe(id)) {
+                Slot slot = slots.remove(id);
+                if (slot == null) return null;
+                unindex(id, slot);
+                size.decrementAndGet();
+                return slot.listing();
+            }
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    /**
+     * Applies a discount to a listing, atomically for readers: they see either the old
+     * listing at its old place in every index or the discounted one at its new place.
+     * @param id the id of the listing
+     * @param percentage the percentage discount to apply
+     * @return the new total price
+     * @throws NoSuchElementException if there is no listing with that id
+     */
+    public long discount(int id, int percentage) {
+        long stamp = beginWrite();
+        try {
+            synchronized (stripe(id)) {
+                Slot old = slots.get(id);
+                if (old == null) throw new NoSuchElementException("No listing with id " + id);
+                RealEstate discounted = copyOf(old.listing());
+                discounted.makeDiscount(percentage);
+                Slot slot = new Slot(discounted, discounted.getTotalPrice());
+                slots.put(id, slot);
+                if (slot.total() != old.total()) {
+                    unindex(id, old);
+                    index(id, slot);
+                }
+                return slot.total();
+            }
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    /**
+     * Re-prices every listing after the {@link PricingEngine pricing plan} changed, holding
+     * off all other writers and readers meanwhile.
+     * @return the number of listings whose total price changed
+     */
+    public int reprice() {
+        long stamp = gate.writeLock();
+        try {
+            writesStarted.incrementAndGet();
+            int changed = 0;
+            for (Map.Entry<Integer, Slot> e : slots.entrySet()) {
+                Slot old = e.getValue();
+                long total = old.listing().getTotalPrice();
+                if (total == old.total()) continue;
+                Slot slot = new Slot(old.listing(), total);
+                e.setValue(slot);
+                unindex(e.getKey(), old);
+                index(e.getKey(), slot);
+                changed++;
+            }
+            return changed;
+        } finally {
+            writesFinished.incrementAndGet();
+            gate.unlockWrite(stamp);
+        }
+    }
+
+    /** @return the number of listings */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @param id a listing id
+     * @return the current version of the listing, or null if there is none with that id
+     */
+    public RealEstate get(int id) {
+        Slot slot = slots.get(id);
+        return slot == null ? null : slot.listing();
+    }
+
+    /**
+     * @param id a listing id
+     * @return the total price the listing is indexed with
+     * @throws NoSuchElementException if there is no listing with that id
+     */
+    public long totalPrice(int id) {
+        Slot slot = slots.get(id);
+        if (slot == null) throw new NoSuchElementException("No listing with id " + id);
+        return slot.total();
+    }
+
+    /** @return the ids of all listings, cheapest first, equal prices in insertion order */
+    public int[] ids() {
+        return consistentRead(() -> idsOf(byPrice));
+    }
+
+    /**
+     * @param min the lowest total price, inclusive
+     * @param max the highest total price, inclusive
+     * @return the ids of the listings whose total price lies in {@code [min, max]}, cheapest first
+     */
+    public int[] idsInPriceRange(long min, long max) {
+        if (min > max) return new int[0];
+        return consistentRead(() -> idsOf(byPrice.subSet(new PriceKey(min, Integer.MIN_VALUE), true,
+                new PriceKey(max, Integer.MAX_VALUE), true)));
+    }
+
+    /**
+     * @param city a city name, matched case-insensitively
+     * @return the ids of the listings in that city, cheapest first
+     */
+    public int[] idsInCity(String city) {
+        ConcurrentSkipListSet<PriceKey> index = byCity.get(cityKey(city));
+        return index == null ? new int[0] : consistentRead(() -> idsOf(index));
+    }
+
+    /**
+     * @param genre a genre
+     * @return the ids of the listings of that genre, cheapest first
+     */
+    public int[] idsOfGenre(Genre genre) {
+        return consistentRead(() -> idsOf(byGenre.get(genre)));
+    }
+
+    /** @return the cheapest listing, or null if the portfolio is empty */
+    public RealEstate cheapest() {
+        return consistentRead(() -> {
+            PriceKey first = byPrice.isEmpty() ? null : byPrice.first();
+            return first == null ? null : slots.get(first.id()).listing();
+        });
+    }
+
+    /**
+     * Computes the report of {@link ReportEngine} over one consistent state of the portfolio.
+     * @return the report
+     * @throws IllegalStateException if the portfolio is empty
+     */
+    public ReportEngine.Report report() {
+        ReportEngine.Report report = consistentRead(() -> {
+            if (byPrice.isEmpty()) return null;
+            ReportEngine.Accumulator acc = new ReportEngine.Accumulator();
+            for (PriceKey key : byPrice) acc.add(key.id(), slots.get(key.id()).listing(), key.total());
+            return ReportEngine.finish(this::get, acc, byPrice.first().total());
+        });
+        if (report == null) throw new IllegalStateException("No properties to report on");
+        return report;
+    }
+
+    /**
+     * Runs a read over several listings on a state no write is in the middle of.
+     * A read that fails while a write interfered is simply repeated.
+     */
+    private <T> T consistentRead(Supplier<T> read) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long finished = writesFinished.get();
+            long started = writesStarted.get();
+            if (started != finished) {
+                Thread.onSpinWait();
+                continue;
+            }
+            try {
+                T result = read.get();
+                if (writesStarted.get() == started) return result;
+            } catch (RuntimeException e) {
+                if (writesStarted.get() == started) throw e;
+            }
+        }
+        long stamp = gate.writeLock();
+        try {
+            return read.get();
+        } finally {
+            gate.unlockWrite(stamp);
+        }
+    }
+
+    private long beginWrite() {
+        long stamp = gate.readLock();
+        writesStarted.incrementAndGet();
+        return stamp;
+    }
+
+    private void endWrite(long stamp) {
+        writesFinished.incrementAndGet();
+        gate.unlockRead(stamp);
+    }
+
+    private Object stripe(int id) {
+        return stripes[id & (STRIPES - 1)];
+    }
+
+    private void index(int id, Slot slot) {
+        PriceKey key = slot.key(id);
+        RealEstate p = slot.listing();
+        byPrice.add(key);
+        byCity.computeIfAbsent(cityKey(p.getCity()), k -> new ConcurrentSkipListSet<>()).add(key);
+        byGenre.get(p.getGenre()).add(key);
+    }
+
+    private void unindex(int id, Slot slot) {
+        PriceKey key = slot.key(id);
+        RealEstate p = slot.listing();
+        byPrice.remove(key);
+        byCity.get(cityKey(p.getCity())).remove(key);
+        byGenre.get(p.getGenre()).remove(key);
+    }
+
+    private static int[] idsOf(NavigableSet<PriceKey> keys) {
+        int[] ids = new int[16];
+        int n = 0;
+        for (PriceKey key : keys) {
+            if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+            ids[n++] = key.id();
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    private static String cityKey(String city) {
+        return city.toLowerCase(Locale.ROOT);
+    }
+
+    private static RealEstate copyOf(RealEstate p) {
+        if (p instanceof Panel panel) {
+            return new Panel(panel.getCity(), panel.getPrice(), panel.getSqm(), panel.getNumberOfRooms(),
+                    panel.getGenre(), panel.getFloor(), panel.isInsulated());
+        }
+        return new RealEstate(p.getCity(), p.getPrice(), p.getSqm(), p.getNumberOfRooms(), p.getGenre());
+    }
+}
@@ -0,0 +1,172 @@
+package realestate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of {@link ConcurrentPortfolio}: ingest, discount, remove and report threads run
+ * against one portfolio, the readers checking every result they get for consistency, and the
+ * final state is compared with the report {@link ReportEngine} computes from scratch.
+ * <p>
+ * Usage: {@code java realestate.ConcurrentPortfolioStressTest [seconds]}, 5 seconds by default.
+ * Exits with status 1 on the first violation.
+ */
+public class ConcurrentPortfolioStressTest {
+
+    private static final int READERS = 3;
+    private static final int BATCH = 500;
+
+    private final ConcurrentPortfolio portfolio = new ConcurrentPortfolio();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong discounts = new AtomicLong();
+    private final AtomicLong reads = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+        ConcurrentPortfolioStressTest test = new ConcurrentPortfolioStressTest();
+        test.run(seconds * 1000);
+        if (!test.failures.isEmpty()) {
+            test.failures.forEach(f -> System.out.println("FAIL: " + f));
+            System.exit(1);
+        }
+        System.out.println("Concurrent portfolio OK: " + test.added + " added, " + test.removed + " removed, "
+                + test.discounts + " discounts, " + test.reads + " consistent reads, "
+                + test.portfolio.size() + " listings left");
+    }
+
+    private void run(long millis) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(this::ingest, "ingest"));
+        threads.add(new Thread(() -> discount(1), "discount-1"));
+        threads.add(new Thread(() -> discount(2), "discount-2"));
+        threads.add(new Thread(this::remove, "remove"));
+        for (int i = 0; i < READERS; i++) threads.add(new Thread(this::read, "reader-" + i));
+        for (Thread t : threads) {
+            t.setUncaughtExceptionHandler((th, e) -> fail(th.getName() + " died: " + e));
+            t.start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread t : threads) t.join();
+        checkFinalState();
+    }
+
+    private void ingest() {
+        ListingGenerator generator = new ListingGenerator(ListingGenerator.DEFAULT_SEED);
+        while (running.get()) {
+            generator.generate(BATCH, p -> {
+                portfolio.add(p);
+                added.incrementAndGet();
+            });
+            // Keep the portfolio from growing without bound
+            while (running.get() && portfolio.size() > 50_000) Thread.onSpinWait();
+        }
+    }
+
+    private void discount(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        while (running.get()) {
+            int[] ids = portfolio.idsInPriceRange(Long.MIN_VALUE, Long.MAX_VALUE);
+            if (ids.length == 0) continue;
+            for (int i = 0; i < 100; i++) {
+                int id = ids[random.nextInt(ids.length)];
+                RealEstate before = portfolio.get(id);
+                try {
+                    long total = portfolio.discount(id, 1 + random.nextInt(20));
+                    if (before != null && total > before.getTotalPrice()) fail("discount raised the price of " + id);
+                    discounts.incrementAndGet();
+                } catch (NoSuchElementException e) {
+                    // Removed meanwhile
+                }
+            }
+        }
+    }
+
+    private void remove() {
+        SplittableRandom random = new SplittableRandom(3);
+        while (running.get()) {
+            int[] ids = portfolio.ids();
+            if (ids.length < 1_000) continue;
+            for (int i = 0; i < 100; i++) {
+                if (portfolio.remove(ids[random.nextInt(ids.length)]) != null) removed.incrementAndGet();
+            }
+        }
+    }
+
+    private void read() {
+        while (running.get()) {
+            long addedBefore = added.get();
+            long removedBefore = removed.get();
+            checkDistinct("ids()", portfolio.ids());
+            checkDistinct("idsOfGenre()", portfolio.idsOfGenre(Genre.CONDOMINIUM));
+            try {
+                ReportEngine.Report report = portfolio.report();
+                // Counters move after the write, and one adder and one remover may be mid-write
+                long low = addedBefore - removed.get() - 1;
+                long high = added.get() + 1 - removedBefore;
+                if (report.count() < low || report.count() > high) {
+                    fail("report count " + report.count() + " outside [" + low + ", " + high + "]");
+                }
+                if (report.cheapestTotalPrice() > report.averageTotalPrice()) {
+                    fail("cheapest " + report.cheapestTotalPrice() + " above average " + report.averageTotalPrice());
+                }
+                for (ReportEngine.Entry e : report.affordableCondominiums()) {
+                    if (e.totalPrice() > report.averageTotalPrice()) fail("affordable entry above the average");
+                }
+            } catch (IllegalStateException e) {
+                // Nothing added yet
+            }
+            reads.incrementAndGet();
+        }
+    }
+
+    private void checkDistinct(String what, int[] ids) {
+        BitSet seen = new BitSet();
+        for (int id : ids) {
+            if (seen.get(id)) {
+                fail(what + " returned id " + id + " twice");
+                return;
+            }
+            seen.set(id);
+        }
+    }
+
+    private void checkFinalState() {
+        int[] ids = portfolio.ids();
+        if (ids.length != portfolio.size()) fail("ids() has " + ids.length + " entries, size() is " + portfolio.size());
+        if (portfolio.size() != added.get() - removed.get()) {
+            fail("size() is " + portfolio.size() + ", expected " + (added.get() - removed.get()));
+        }
+        int genres = 0;
+        for (Genre g : Genre.values()) genres += portfolio.idsOfGenre(g).length;
+        if (genres != ids.length) fail("genre indexes hold " + genres + " listings, expected " + ids.length);
+
+        PropertyStore store = new PropertyStore();
+        long previous = Long.MIN_VALUE;
+        for (int id : ids) {
+            long total = portfolio.totalPrice(id);
+            if (total < previous) fail("ids() not in price order at " + id);
+            if (total != portfolio.get(id).getTotalPrice()) fail("stale index price for " + id);
+            previous = total;
+            store.insert(portfolio.get(id));
+        }
+        if (ids.length == 0) return;
+        String expected = ReportEngine.compute(store).toText();
+        String actual = portfolio.report().toText();
+        if (!expected.equals(actual)) fail("final report differs from ReportEngine.compute");
+    }
+
+    private void fail(String message) {
+        failures.add(message);
+        running.set(false);
+    }
+}
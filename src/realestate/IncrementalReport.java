@@ -0,0 +1,168 @@
+package realestate;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The report of {@link ReportEngine}, kept up to date while a {@link PropertyStore} changes.
+ * <p>
+ * The report registers itself as a listener of the store and updates its aggregates on every
+ * addition, removal, discount and re-pricing:
+ * <ul>
+ *   <li>the count, the exact sum of the sqm prices and the sum of the total prices, O(1);</li>
+ *   <li>a {@link PriceIndex} of (total price, id) per (city, genre), so the most expensive
+ *       listing of any city and genre is known, O(log n);</li>
+ *   <li>a {@link PriceIndex} of the condominiums, from which the affordable ones are read as
+ *       a price range, O(log n).</li>
+ * </ul>
+ * {@link #report()} then costs O(log n) plus the length of the affordable list, with no pass
+ * over the listings. The sqm prices are summed exactly, since a floating-point running sum
+ * would drift as listings come and go. The batch pass sums with compensation, so the two
+ * averages can differ in the last bits, which the report, rounding to whole forints, does
+ * not show. NaN and infinite prices are counted apart and make the average NaN or infinite,
+ * as in the batch pass.
+ * <p>
+ * Not thread-safe; use it from the thread that changes the store.
+ */
+public final class IncrementalReport implements PropertyStore.Listener {
+
+    private static final String BUDAPEST = "budapest";
+
+    private final PropertyStore store;
+
+    private long count;
+    private BigDecimal sqmPriceSum = BigDecimal.ZERO;
+    // Prices that are NaN or infinite, which have no exact sum and are counted apart
+    private long nanPrices;
+    private long positiveInfinitePrices;
+    private long negativeInfinitePrices;
+    private long totalPrice;
+    private final Map<String, Map<Genre, PriceIndex>> byCityAndGenre = new HashMap<>();
+    private final PriceIndex condominiums = new PriceIndex();
+    // The (city, genre) index each listing is in, by id, so removals need no lookup
+    private PriceIndex[] groupOf = new PriceIndex[16];
+
+    /**
+     * Creates the report of a store, reading its current listings once, and follows the
+     * store from then on.
+     * @param store the store
+     */
+    public IncrementalReport(PropertyStore store) {
+        this.store = store;
+        for (int id : store.ids()) added(id, store.get(id), store.totalPrice(id));
+        store.addListener(this);
+    }
+
+    /** Stops following the store. */
+    public void detach() {
+        store.removeListener(this);
+    }
+
+    @Override
+    public void added(int id, RealEstate property, long total) {
+        count++;
+        addSqmPrice(property.getPrice(), 1);
+        totalPrice += total;
+        if (id >= groupOf.length) groupOf = Arrays.copyOf(groupOf, Math.max(id + 1, groupOf.length * 2));
+        PriceIndex group = groupOf[id];
+        if (group == null) groupOf[id] = group = group(property);
+        group.add(total, id);
+        if (property.getGenre() == Genre.CONDOMINIUM) condominiums.add(total, id);
+    }
+
+    @Override
+    public void removed(int id, RealEstate property, long total) {
+        count--;
+        addSqmPrice(property.getPrice(), -1);
+        totalPrice -= total;
+        groupOf[id].remove(total, id);
+        if (property.getGenre() == Genre.CONDOMINIUM) condominiums.remove(total, id);
+    }
+
+    @Override
+    public void cleared() {
+        count = 0;
+        sqmPriceSum = BigDecimal.ZERO;
+        nanPrices = 0;
+        positiveInfinitePrices = 0;
+        negativeInfinitePrices = 0;
+        totalPrice = 0;
+        byCityAndGenre.clear();
+        condominiums.clear();
+        Arrays.fill(groupOf, null);
+    }
+
+    /**
+     * Adds a sqm price to the sum or takes it away from it.
+     * @param price the price per sqm
+     * @param sign 1 to add it, -1 to take it away
+     */
+    private void addSqmPrice(double price, int sign) {
+        if (Double.isNaN(price)) nanPrices += sign;
+        else if (price == Double.POSITIVE_INFINITY) positiveInfinitePrices += sign;
+        else if (price == Double.NEGATIVE_INFINITY) negativeInfinitePrices += sign;
+        else if (sign > 0) sqmPriceSum = sqmPriceSum.add(new BigDecimal(price));
+        else sqmPriceSum = sqmPriceSum.subtract(new BigDecimal(price));
+    }
+
+    /** @return the average sqm price, NaN or infinite as a double sum of the prices would be */
+    private double averageSqmPrice() {
+        if (nanPrices > 0 || (positiveInfinitePrices > 0 && negativeInfinitePrices > 0)) return Double.NaN;
+        if (positiveInfinitePrices > 0) return Double.POSITIVE_INFINITY;
+        if (negativeInfinitePrices > 0) return Double.NEGATIVE_INFINITY;
+        return sqmPriceSum.divide(BigDecimal.valueOf(count), MathContext.DECIMAL128).doubleValue();
+    }
+
+    /** @return the number of listings */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Finds the most expensive listing of a city and genre; of equal prices the earliest added.
+     * @param city the city, matched case-insensitively
+     * @param genre the genre
+     * @return the id of the listing, or -1 if there is none
+     */
+    public int mostExpensive(String city, Genre genre) {
+        Map<Genre, PriceIndex> genres = byCityAndGenre.get(city.toLowerCase(Locale.ROOT));
+        PriceIndex group = genres == null ? null : genres.get(genre);
+        if (group == null || group.size() == 0) return -1;
+        return group.firstIdAtLeast(group.lastPrice());
+    }
+
+    /**
+     * Builds the current report, equal to what {@link ReportEngine#compute} returns for the store.
+     * @return the report
+     * @throws IllegalStateException if the store is empty
+     */
+    public ReportEngine.Report report() {
+        if (count == 0) throw new IllegalStateException("No properties to report on");
+        double averageSqmPrice = averageSqmPrice();
+        long averageTotal = (long) ((double) totalPrice / count);
+        int cheapest = store.cheapestId();
+        int budapestBest = mostExpensive(BUDAPEST, Genre.CONDOMINIUM);
+        double budapestBestAvg = budapestBest < 0 ? 0.0 : store.get(budapestBest).averageSqmPerRoom();
+
+        int[] ids = condominiums.idsInRange(Long.MIN_VALUE, averageTotal);
+        List<ReportEngine.Entry> affordable = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            RealEstate p = store.get(id);
+            affordable.add(new ReportEngine.Entry(p.getCity(), p instanceof Panel, store.totalPrice(id)));
+        }
+        return new ReportEngine.Report(count, averageSqmPrice, store.totalPrice(cheapest), budapestBestAvg,
+                totalPrice, averageTotal, affordable);
+    }
+
+    private PriceIndex group(RealEstate property) {
+        return byCityAndGenre.computeIfAbsent(property.getCity().toLowerCase(Locale.ROOT), k -> new EnumMap<>(Genre.class))
+                .computeIfAbsent(property.getGenre(), k -> new PriceIndex());
+    }
+}
@@ -0,0 +1,118 @@
+package realestate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Level;
+
+/**
+ * Equivalence test of {@link IncrementalReport}: random sequences of additions, removals,
+ * discounts, re-pricings and clears are run against a store, on the heap and off it, and the
+ * report kept up to date along the way is compared with the one {@link ReportEngine#compute}
+ * works out from scratch. Some reports start following the store only part way through, and
+ * a few listings have a NaN or infinite price.
+ * <p>
+ * Usage: {@code java realestate.IncrementalReportStressTest [seeds]}, 300 seeds by default.
+ * Exits with status 1 on the first difference.
+ */
+public class IncrementalReportStressTest {
+
+    private static final String[] CITIES = {"Budapest", "budapest", "BUDAPEST", "Debrecen", "Pécs", "Győr"};
+    private static final int MAX_STEPS = 2000;
+    private static final double[] NON_FINITE = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+    private int checks;
+    private int repricings;
+    private int clears;
+    private int nonFinite;
+
+    public static void main(String[] args) {
+        LoggerConfig.getLogger().setLevel(Level.OFF);
+        long seeds = args.length > 0 ? Long.parseLong(args[0]) : 300;
+        IncrementalReportStressTest test = new IncrementalReportStressTest();
+        try {
+            for (long seed = 1; seed <= seeds; seed++) test.run(seed);
+        } catch (AssertionError e) {
+            System.out.println("FAIL: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            PricingEngine.install(PricingPlan.defaults());
+        }
+        System.out.println("Incremental report OK: " + test.checks + " reports matched a full computation, "
+                + test.repricings + " re-pricings, " + test.clears + " clears, " + test.nonFinite
+                + " with a NaN or infinite average");
+    }
+
+    private void run(long seed) {
+        Random random = new Random(seed);
+        PricingEngine.install(PricingPlan.defaults());
+        PropertyStore store = seed % 2 == 0 ? PropertyStore.offHeap() : new PropertyStore();
+        List<Integer> live = new ArrayList<>();
+        IncrementalReport report = random.nextBoolean() ? new IncrementalReport(store) : null;
+        int steps = random.nextInt(MAX_STEPS);
+        for (int step = 0; step < steps; step++) {
+            int op = random.nextInt(10);
+            if (op < 5 || live.isEmpty()) {
+                live.add(store.insert(listing(random)));
+            } else if (op < 7) {
+                store.removeById(live.remove(random.nextInt(live.size())));
+            } else if (op < 9) {
+                store.discount(live.get(random.nextInt(live.size())), random.nextInt(30));
+            } else if (random.nextInt(50) == 0) {
+                Properties rules = new Properties();
+                rules.setProperty("city.Budapest", String.valueOf(1 + random.nextInt(5) / 10.0));
+                rules.setProperty("panel.floor.0-3", String.valueOf(1 + random.nextInt(3) / 20.0));
+                PricingEngine.install(PricingPlan.compile(rules));
+                store.reprice();
+                repricings++;
+            } else if (random.nextInt(100) == 0) {
+                store.clear();
+                live.clear();
+                clears++;
+            }
+            if (report == null && random.nextInt(200) == 0) report = new IncrementalReport(store);
+            if (report != null && !store.isEmpty() && (random.nextInt(50) == 0 || step == steps - 1)) {
+                check(seed, step, ReportEngine.compute(store), report.report());
+            }
+        }
+    }
+
+    private static RealEstate listing(Random random) {
+        // Round prices as well, so listings often share a total price
+        double price = random.nextBoolean() ? 100000 + 1000 * random.nextInt(100) : random.nextDouble() * 500000;
+        // The parser accepts NaN and infinite prices too
+        if (random.nextInt(1000) == 0) price = NON_FINITE[random.nextInt(NON_FINITE.length)];
+        String city = CITIES[random.nextInt(CITIES.length)];
+        int sqm = 20 + random.nextInt(5) * 10;
+        double rooms = 1 + random.nextInt(5);
+        Genre genre = Genre.values()[random.nextInt(3)];
+        if (random.nextBoolean()) return new RealEstate(city, price, sqm, rooms, genre);
+        return new Panel(city, price, sqm, rooms, genre, random.nextInt(12), random.nextBoolean());
+    }
+
+    private void check(long seed, int step, ReportEngine.Report expected, ReportEngine.Report actual) {
+        String at = "seed " + seed + " step " + step + ": ";
+        if (!expected.toText().equals(actual.toText())) {
+            throw new AssertionError(at + "report text differs\nexpected\n" + expected.toText() + "got\n" + actual.toText());
+        }
+        // The averages may differ in the last bits, see IncrementalReport
+        double average = expected.averageSqmPrice();
+        boolean close = Double.isFinite(average)
+                ? Math.abs(average - actual.averageSqmPrice()) <= Math.abs(average) * 1e-12
+                : Double.compare(average, actual.averageSqmPrice()) == 0;
+        if (!close) {
+            throw new AssertionError(at + "average sqm price " + actual.averageSqmPrice() + ", expected "
+                    + expected.averageSqmPrice());
+        }
+        if (expected.count() != actual.count() || expected.totalPrice() != actual.totalPrice()
+                || expected.averageTotalPrice() != actual.averageTotalPrice()
+                || expected.cheapestTotalPrice() != actual.cheapestTotalPrice()
+                || Double.compare(expected.budapestBestAvgSqmPerRoom(), actual.budapestBestAvgSqmPerRoom()) != 0
+                || !expected.affordableCondominiums().equals(actual.affordableCondominiums())) {
+            throw new AssertionError(at + "report differs\nexpected " + expected + "\ngot " + actual);
+        }
+        if (!Double.isFinite(average)) nonFinite++;
+        checks++;
+    }
+}
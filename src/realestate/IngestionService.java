@@ -0,0 +1,308 @@
+package realestate;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Loads many listings files at once.
+ * <p>
+ * Every file is parsed by its own {@link ListingParser} on a virtual thread. Parsed listings
+ * are handed over in batches through a bounded queue to the calling thread, which feeds them
+ * to the sink; when the sink falls behind, the queue fills up and the parsers wait, so memory
+ * stays bounded however many files there are. At most {@code maxOpenFiles} files are read at
+ * the same time, enough to keep the disk busy while one file waits, without making every file
+ * seek against all the others.
+ * <p>
+ * Listings of one file reach the sink in file order, but files are interleaved. A file that
+ * cannot be read does not stop the others: it is reported as failed, with the listings read
+ * before the failure already handed to the sink. Progress and failures are logged per file
+ * as each file finishes, after all its listings have reached the sink.
+ * <p>
+ * Given a {@link ListingDeduplicator}, listings seen before, in the same file or another, are
+ * dropped before the sink and counted per file. The parsers compute the fingerprints of
+ * their listings, so the calling thread only looks them up. Which of two copies in different
+ * files is kept depends on the order the files are read in.
+ */
+public class IngestionService {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    /** Listings handed over at a time. */
+    static final int BATCH_SIZE = 1024;
+    /** Default number of batches waiting for the sink. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    /** Default number of files read at the same time. */
+    public static final int DEFAULT_MAX_OPEN_FILES = 16;
+
+    /** Receives the lines rejected while loading, with the file they are in. */
+    @FunctionalInterface
+    public interface ErrorSink {
+        /**
+         * @param file the file the line is in
+         * @param lineNumber 1-based line number in the file
+         * @param error the rejection reason
+         * @param line the raw line
+         * @param detail extra detail, such as the number that did not parse
+         */
+        void onError(Path file, long lineNumber, ListingParser.ParseError error, String line, String detail);
+    }
+
+    /**
+     * The outcome of loading one file.
+     * @param file the file
+     * @param records listings accepted
+     * @param lines lines read, blank ones included
+     * @param rejected lines rejected
+     * @param duplicates listings accepted but dropped as seen before, 0 without deduplication
+     * @param nanos time from opening the file until its last listing was handed over
+     * @param failure why the file could not be read completely, null if it was
+     */
+    public record FileResult(Path file, long records, long lines, long rejected, long duplicates, long nanos,
+                             String failure) {
+        /** @return whether the file could not be read completely */
+        public boolean failed() {
+            return failure != null;
+        }
+    }
+
+    /**
+     * The outcome of loading a set of files.
+     * @param files one result per file, in the order they finished
+     */
+    public record Result(List<FileResult> files) {
+        /** @return listings accepted from every file */
+        public long records() {
+            return files.stream().mapToLong(FileResult::records).sum();
+        }
+
+        /** @return lines read from every file */
+        public long lines() {
+            return files.stream().mapToLong(FileResult::lines).sum();
+        }
+
+        /** @return lines rejected in every file */
+        public long rejected() {
+            return files.stream().mapToLong(FileResult::rejected).sum();
+        }
+
+        /** @return listings dropped as duplicates in every file */
+        public long duplicates() {
+            return files.stream().mapToLong(FileResult::duplicates).sum();
+        }
+
+        /** @return the files that could not be read completely */
+        public List<FileResult> failures() {
+            return files.stream().filter(FileResult::failed).toList();
+        }
+    }
+
+    // A batch of listings of the file at an index, with their fingerprints if deduplicating,
+    // or the end of the file when result is set
+    private record Batch(int file, List<RealEstate> records, long[] fingerprints, FileResult result) {}
+
+    private final int queueCapacity;
+    private final int maxOpenFiles;
+
+    /** Creates a service with the default queue capacity and number of open files. */
+    public IngestionService() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_OPEN_FILES);
+    }
+
+    /**
+     * Creates a service.
+     * @param queueCapacity number of batches of {@value #BATCH_SIZE} listings that may wait
+     *                      for the sink, at least 1
+     * @param maxOpenFiles number of files read at the same time, at least 1
+     */
+    public IngestionService(int queueCapacity, int maxOpenFiles) {
+        if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity must be at least 1: " + queueCapacity);
+        if (maxOpenFiles < 1) throw new IllegalArgumentException("maxOpenFiles must be at least 1: " + maxOpenFiles);
+        this.queueCapacity = queueCapacity;
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Lists the listings files of a directory: its regular {@code *.txt} files, by name.
+     * @param directory the directory
+     * @return the files
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<Path> filesIn(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*.txt")) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry)) files.add(entry);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Loads files.
+     * @param files the listings files
+     * @param sink receives every parsed listing, on the calling thread
+     * @param errorSink receives every rejected line, on the thread parsing its file
+     * @return the result of every file
+     * @throws InterruptedException if the calling thread is interrupted; the files still being
+     *                              read are abandoned
+     */
+    public Result load(List<Path> files, Consumer<? super RealEstate> sink, ErrorSink errorSink)
+            throws InterruptedException {
+        return load(files, null, sink, errorSink);
+    }
+
+    /**
+     * Loads files, dropping listings seen before.
+     * @param files the listings files
+     * @param deduplicator drops the listings seen before, in these files or earlier ones; null
+     *                     to keep every listing
+     * @param sink receives every parsed listing not dropped, on the calling thread
+     * @param errorSink receives every rejected line, on the thread parsing its file
+     * @return the result of every file
+     * @throws InterruptedException if the calling thread is interrupted; the files still being
+     *                              read are abandoned
+     */
+    public Result load(List<Path> files, ListingDeduplicator deduplicator, Consumer<? super RealEstate> sink,
+                       ErrorSink errorSink) throws InterruptedException {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Semaphore openFiles = new Semaphore(maxOpenFiles);
+        List<FileResult> results = new ArrayList<>(files.size());
+        long[] duplicates = new long[files.size()];
+        boolean fingerprint = deduplicator != null;
+        log.info("Loading " + files.size() + " file(s), at most " + maxOpenFiles + " at a time"
+                + (fingerprint ? ", dropping duplicates" : ""));
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                int index = i;
+                executor.execute(() -> loadFile(index, files.get(index), fingerprint, queue, openFiles, errorSink));
+            }
+            while (results.size() < files.size()) {
+                Batch batch = queue.take();
+                if (batch.result() == null) {
+                    if (!fingerprint) {
+                        batch.records().forEach(sink);
+                        continue;
+                    }
+                    List<RealEstate> records = batch.records();
+                    for (int i = 0; i < records.size(); i++) {
+                        if (deduplicator.firstSeen(batch.fingerprints()[i])) sink.accept(records.get(i));
+                        else duplicates[batch.file()]++;
+                    }
+                    continue;
+                }
+                FileResult r = batch.result();
+                FileResult result = new FileResult(r.file(), r.records(), r.lines(), r.rejected(),
+                        duplicates[batch.file()], r.nanos(), r.failure());
+                results.add(result);
+                logResult(result, results.size(), files.size());
+            }
+        } finally {
+            // Unblocks parsers waiting on a full queue if the sink failed or we were interrupted
+            executor.shutdownNow();
+            executor.close();
+        }
+        return new Result(results);
+    }
+
+    /** Parses one file on a virtual thread and hands its listings over in batches. */
+    private static void loadFile(int index, Path file, boolean fingerprint, BlockingQueue<Batch> queue,
+                                 Semaphore openFiles, ErrorSink errorSink) {
+        Batcher batcher = new Batcher(index, fingerprint, queue);
+        ListingParser parser = new ListingParser(batcher,
+                (lineNumber, error, line, detail) -> errorSink.onError(file, lineNumber, error, line, detail));
+        long start = System.nanoTime();
+        String failure = "interrupted";
+        try {
+            openFiles.acquire();
+            try {
+                parser.parse(file);
+                failure = null;
+            } finally {
+                openFiles.release();
+            }
+        } catch (InterruptedException | Interrupted e) {
+            return; // the load was abandoned, nobody is waiting for this file any more
+        } catch (Exception | Error e) {
+            failure = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        try {
+            batcher.flush();
+            queue.put(new Batch(index, null, null, new FileResult(file, parser.getRecordCount(), parser.getLineCount(),
+                    parser.getErrorCount(), 0, System.nanoTime() - start, failure)));
+        } catch (InterruptedException | Interrupted e) {
+            // abandoned
+        }
+    }
+
+    /**
+     * Collects the listings of one file into batches, with their fingerprints if asked, and
+     * queues every full batch.
+     */
+    private static final class Batcher implements Consumer<RealEstate> {
+        private final int file;
+        private final boolean fingerprint;
+        private final BlockingQueue<Batch> queue;
+        private List<RealEstate> batch = new ArrayList<>(BATCH_SIZE);
+        private long[] fingerprints;
+
+        Batcher(int file, boolean fingerprint, BlockingQueue<Batch> queue) {
+            this.file = file;
+            this.fingerprint = fingerprint;
+            this.queue = queue;
+            this.fingerprints = fingerprint ? new long[BATCH_SIZE] : null;
+        }
+
+        @Override
+        public void accept(RealEstate listing) {
+            if (fingerprint) fingerprints[batch.size()] = ListingDeduplicator.fingerprint(listing);
+            batch.add(listing);
+            if (batch.size() == BATCH_SIZE) flush();
+        }
+
+        void flush() {
+            if (batch.isEmpty()) return;
+            try {
+                queue.put(new Batch(file, batch, fingerprints, null));
+            } catch (InterruptedException e) {
+                throw new Interrupted();
+            }
+            batch = new ArrayList<>(BATCH_SIZE);
+            if (fingerprint) fingerprints = new long[BATCH_SIZE];
+        }
+    }
+
+    private static void logResult(FileResult r, int done, int total) {
+        if (r.failed()) {
+            log.severe("Could not load " + r.file() + " (" + done + "/" + total + "): " + r.failure()
+                    + (r.records() > r.duplicates() ? " → kept " + (r.records() - r.duplicates())
+                            + " records read before the failure" : ""));
+        } else {
+            log.info("Loaded " + r.file() + " (" + done + "/" + total + "): " + r.records() + " records from "
+                    + r.lines() + " lines (" + r.rejected() + " rejected, " + r.duplicates() + " duplicates) in "
+                    + r.nanos() / 1_000_000 + " ms");
+        }
+    }
+
+    /** Thrown through the parser when the load is abandoned while a batch waits for the queue. */
+    private static final class Interrupted extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Interrupted() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package realestate;
+
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Drops listings seen before while loading, by a 64-bit fingerprint of their city (ignoring
+ * case, as the store does), price per sqm, sqm, rooms, genre, and for Panel flats floor and
+ * insulation.
+ * <p>
+ * The {@link #exact()} mode keeps every fingerprint in an open-addressing table of
+ * {@code long}s with linear probing, growing it as needed: about 16 bytes per distinct
+ * listing, and only listings whose fingerprints collide, about one pair in 2<sup>64</sup>,
+ * are taken for duplicates wrongly. The {@link #approximate} mode keeps a Bloom filter of
+ * fixed size instead, about 1.2 bytes per expected listing at a 1% false positive rate, for
+ * feeds too large for the table; it never keeps a duplicate, but drops that share of
+ * distinct listings as well, more once more listings than expected have been seen.
+ * <p>
+ * Both take constant time per listing. Fingerprints can be computed with
+ * {@link #fingerprint} on the threads parsing the listings, leaving only the lookup to the
+ * thread feeding the store. Not thread-safe.
+ */
+public final class ListingDeduplicator {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    /** Default false positive rate of {@link #approximate}. */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int MAX_HASHES = 16;
+    // Stands for the fingerprint 0, since 0 marks an empty slot of the table
+    private static final long ZERO = 0x9E3779B97F4A7C15L;
+
+    // The table of exact mode, null in approximate mode
+    private long[] table;
+    private int mask;
+
+    // The filter of approximate mode
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashes;
+    private final long expected;
+
+    private long distinct;
+    private long duplicates;
+
+    private ListingDeduplicator(int capacity, long[] bits, int hashes, long expected) {
+        this.table = bits == null ? new long[capacity] : null;
+        this.mask = capacity - 1;
+        this.bits = bits;
+        this.bitCount = bits == null ? 0 : (long) bits.length * Long.SIZE;
+        this.hashes = hashes;
+        this.expected = expected;
+    }
+
+    /** @return a deduplicator that only drops true duplicates */
+    public static ListingDeduplicator exact() {
+        return new ListingDeduplicator(INITIAL_CAPACITY, null, 0, 0);
+    }
+
+    /**
+     * Creates a deduplicator of fixed size that may drop distinct listings too.
+     * @param expected the number of distinct listings expected, at least 1
+     * @param falsePositiveRate the share of distinct listings that may be dropped as long as
+     *                          no more than {@code expected} are seen, between 0 and 1
+     * @return the deduplicator
+     */
+    public static ListingDeduplicator approximate(long expected, double falsePositiveRate) {
+        if (expected < 1) throw new IllegalArgumentException("expected must be at least 1: " + expected);
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: " + falsePositiveRate);
+        }
+        double ln2 = Math.log(2);
+        long bitCount = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long words = Math.max(1, (bitCount + Long.SIZE - 1) / Long.SIZE);
+        if (words > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Filter too large for " + expected + " listings");
+        int hashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round((double) words * Long.SIZE / expected * ln2)));
+        return new ListingDeduplicator(0, new long[(int) words], hashes, expected);
+    }
+
+    /**
+     * Computes the fingerprint of a listing; two listings with the same fields have the same
+     * fingerprint. Thread-safe.
+     * @param property the listing
+     * @return its fingerprint
+     */
+    public static long fingerprint(RealEstate property) {
+        long h = 0;
+        String city = property.getCity();
+        if (city != null) {
+            for (int i = 0; i < city.length(); i++) h = 31 * h + Character.toLowerCase(city.charAt(i));
+        }
+        h = mix(h ^ Double.doubleToLongBits(property.getPrice()));
+        h = mix(h ^ property.getSqm());
+        h = mix(h ^ Double.doubleToLongBits(property.getNumberOfRooms()));
+        h = mix(h ^ property.getGenre().ordinal());
+        if (property instanceof Panel flat) {
+            h = mix(h ^ ((long) flat.getFloor() << 2 | (flat.isInsulated() ? 2 : 0) | 1));
+        }
+        return finish(h);
+    }
+
+    /**
+     * Wraps a sink so that it only receives listings not seen before.
+     * @param sink the sink
+     * @return a sink computing fingerprints on the calling thread
+     */
+    public Consumer<RealEstate> filter(Consumer<? super RealEstate> sink) {
+        return property -> {
+            if (firstSeen(fingerprint(property))) sink.accept(property);
+        };
+    }
+
+    /**
+     * Records a listing and tells whether it was seen before.
+     * @param fingerprint the {@link #fingerprint} of the listing
+     * @return true if the listing is new, false if it is a duplicate
+     */
+    public boolean firstSeen(long fingerprint) {
+        boolean first = table != null ? insert(fingerprint == 0 ? ZERO : fingerprint) : set(fingerprint);
+        if (first) {
+            distinct++;
+            if (table == null && distinct == expected + 1) {
+                log.warning("More than the " + expected + " expected listings seen → more distinct listings will be dropped as duplicates");
+            }
+        } else {
+            duplicates++;
+        }
+        return first;
+    }
+
+    /** @return whether distinct listings may be dropped */
+    public boolean isApproximate() {
+        return table == null;
+    }
+
+    /** @return the number of listings kept */
+    public long distinct() {
+        return distinct;
+    }
+
+    /** @return the number of listings dropped */
+    public long duplicates() {
+        return duplicates;
+    }
+
+    /** @return the bytes taken by the table or filter */
+    public long memoryBytes() {
+        return (long) (table != null ? table.length : bits.length) * Long.BYTES;
+    }
+
+    private boolean insert(long fingerprint) {
+        int i = (int) fingerprint & mask;
+        while (true) {
+            long slot = table[i];
+            if (slot == 0) break;
+            if (slot == fingerprint) return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = fingerprint;
+        // Grown at three quarters full, so probe sequences stay short
+        if (distinct + 1 > (long) table.length * 3 / 4) grow();
+        return true;
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        mask = table.length - 1;
+        for (long fingerprint : old) {
+            if (fingerprint == 0) continue;
+            int i = (int) fingerprint & mask;
+            while (table[i] != 0) i = (i + 1) & mask;
+            table[i] = fingerprint;
+        }
+    }
+
+    /** Sets the bits of a fingerprint in the filter, with double hashing over its two halves. */
+    private boolean set(long fingerprint) {
+        long h1 = fingerprint & 0xFFFFFFFFL;
+        long h2 = (fingerprint >>> 32) | 1;
+        boolean first = false;
+        for (int k = 0; k < hashes; k++) {
+            long bit = Long.remainderUnsigned(h1 + k * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long m = 1L << bit;
+            if ((bits[word] & m) == 0) {
+                bits[word] |= m;
+                first = true;
+            }
+        }
+        return first;
+    }
+
+    private static long mix(long h) {
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 29);
+    }
+
+    /** The finalizer of MurmurHash3, spreading every input bit over the whole fingerprint. */
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,291 @@
+package realestate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the listings of one file in a {@link PropertyStore} in step with the file as it changes.
+ * <p>
+ * The tracker remembers, for every line of the file, where it starts, a checksum of its bytes
+ * and the id of the listing it was parsed into. On {@link #refresh()} it works out what changed:
+ * <ul>
+ *   <li>If the file grew and its last complete line, its first line and up to
+ *       {@value #SAMPLED_LINES} other lines picked at random are still where they were with
+ *       the same checksums, the file is taken to have been appended to: only the bytes after
+ *       the last complete line are read and parsed, so a refresh costs time in proportion to
+ *       what was appended.</li>
+ *   <li>Otherwise (the file shrank, kept its size or was rewritten) the whole file is read
+ *       and every line's checksum is looked up among the old lines. Lines seen before keep
+ *       their listing wherever they moved; only new or edited lines are parsed, and listings of
+ *       lines that are gone are removed.</li>
+ * </ul>
+ * A last line without a terminator may still be being written; it is read again on the next
+ * refresh and replaced only if it changed. An edit that changes the length of a line moves
+ * the lines after it and is always found. An edit that keeps the length, in a file that also
+ * grew, is found only if the edited line is among the lines checked, which in a file of up to
+ * {@value #SAMPLED_LINES} lines it always is; otherwise it is found by the next
+ * {@link #rescan()}, which {@link ListingWatcher} runs periodically. Checksums are the CRC-32
+ * and the length of a line, so two different lines are mistaken for each other about once in
+ * four billion.
+ * <p>
+ * Listings keep their store ids while their lines are unchanged; new and edited lines get new
+ * ids, so after a change the store holds the same listings as a fresh load, in another id
+ * order. Not thread-safe; the store is changed on the calling thread.
+ */
+public final class ListingFileTracker {
+
+    /**
+     * What a refresh changed.
+     * @param file the file
+     * @param fullScan whether the whole file was read, rather than just what was appended
+     * @param bytesRead bytes read from the file
+     * @param linesRead lines read, including unchanged ones on a full scan
+     * @param added listings added to the store
+     * @param removed listings removed from the store
+     * @param nanos time taken
+     */
+    public record Change(Path file, boolean fullScan, long bytesRead, int linesRead, int added, int removed,
+                         long nanos) {
+        /** @return whether the store was changed */
+        public boolean changed() {
+            return added > 0 || removed > 0;
+        }
+    }
+
+    /** Lines besides the first and last complete ones checked before reading only an append. */
+    static final int SAMPLED_LINES = 32;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path file;
+    private final PropertyStore store;
+    private final ListingParser parser;
+    private final CRC32 crc = new CRC32();
+    private RealEstate parsed;
+
+    // Per line: offset of its first byte, checksum, id of its listing or -1
+    private long[] starts = new long[64];
+    private long[] checksums = new long[64];
+    private int[] ids = new int[64];
+    private int lines;
+    // Offset just past the last line read, and whether that line had a terminator
+    private long end;
+    private boolean lastTerminated = true;
+
+    /**
+     * Creates a tracker of a file that has not been read yet; the first {@link #refresh()}
+     * loads it.
+     * @param file the listings file
+     * @param store the store to keep the listings in
+     * @param errorSink receives rejected lines with their line numbers in the file
+     */
+    public ListingFileTracker(Path file, PropertyStore store, ListingParser.ErrorSink errorSink) {
+        this.file = file;
+        this.store = store;
+        this.parser = new ListingParser(listing -> parsed = listing, errorSink);
+    }
+
+    /** @return the tracked file */
+    public Path file() {
+        return file;
+    }
+
+    /** @return the number of listings in the store from this file */
+    public int listingCount() {
+        int count = 0;
+        for (int i = 0; i < lines; i++) {
+            if (ids[i] >= 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Brings the store in step with the file: reads only what was appended if the file just
+     * grew, else the whole file. A missing file counts as empty.
+     * @return what changed
+     * @throws IOException if the file cannot be read
+     */
+    public Change refresh() throws IOException {
+        return update(false);
+    }
+
+    /**
+     * Brings the store in step with the file, reading the whole file.
+     * @return what changed
+     * @throws IOException if the file cannot be read
+     */
+    public Change rescan() throws IOException {
+        return update(true);
+    }
+
+    /**
+     * Removes every listing of the file from the store, as if the file were empty.
+     * @return what changed
+     */
+    public Change forget() {
+        long start = System.nanoTime();
+        int removed = removeLines(0);
+        end = 0;
+        lastTerminated = true;
+        return new Change(file, true, 0, 0, 0, removed, System.nanoTime() - start);
+    }
+
+    private Change update(boolean full) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int from = full || size <= end || !completeLinesUnchanged(channel) ? 0
+                    : lastTerminated ? lines : lines - 1;
+            return scan(channel, from, size, start);
+        } catch (NoSuchFileException e) {
+            return forget();
+        }
+    }
+
+    /**
+     * @return whether the last line that had a terminator, the first line and a random sample
+     *         of the others are still where they were, unchanged; every line if there are
+     *         few of them
+     */
+    private boolean completeLinesUnchanged(FileChannel channel) throws IOException {
+        int last = lastTerminated ? lines - 1 : lines - 2;
+        if (last < 0) return true;
+        if (!lineUnchanged(channel, last)) return false;
+        if (last <= SAMPLED_LINES + 1) {
+            for (int i = 0; i < last; i++) {
+                if (!lineUnchanged(channel, i)) return false;
+            }
+            return true;
+        }
+        if (!lineUnchanged(channel, 0)) return false;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < SAMPLED_LINES; i++) {
+            if (!lineUnchanged(channel, random.nextInt(1, last))) return false;
+        }
+        return true;
+    }
+
+    /** @return whether a line that had a terminator is still where it was, unchanged */
+    private boolean lineUnchanged(FileChannel channel, int index) throws IOException {
+        long from = starts[index];
+        long to = index + 1 < lines ? starts[index + 1] : end;
+        ByteBuffer bytes = ByteBuffer.allocate((int) (to - from));
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, from + bytes.position()) < 0) return false;
+        }
+        byte[] line = bytes.array();
+        int length = line.length;
+        while (length > 0 && (line[length - 1] == '\n' || line[length - 1] == '\r')) length--;
+        return length < line.length && checksum(line, 0, length) == checksums[index];
+    }
+
+    /**
+     * Reads the lines from line {@code from} to the end of the file. Old lines from there on
+     * are reused where a new line has the same checksum and removed from the store otherwise.
+     */
+    private Change scan(FileChannel channel, int from, long size, long startNanos) throws IOException {
+        Map<Long, ArrayDeque<Integer>> old = new HashMap<>();
+        for (int i = from; i < lines; i++) {
+            old.computeIfAbsent(checksums[i], c -> new ArrayDeque<>()).add(ids[i]);
+        }
+        long position = from == 0 ? 0 : from < lines ? starts[from] : end;
+        long scanStart = position;
+        lines = from;
+        int added = 0;
+        int linesRead = 0;
+
+        byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, Math.max(16, size - position + 1))];
+        int filled = 0;
+        boolean eof = false;
+        long bufferStart = position;
+        while (true) {
+            if (!eof) {
+                if (filled == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                int n = channel.read(ByteBuffer.wrap(buf, filled, buf.length - filled), bufferStart + filled);
+                if (n < 0) eof = true;
+                else filled += n;
+            }
+            int pos = 0;
+            while (pos < filled) {
+                int lineEnd = pos;
+                while (lineEnd < filled && buf[lineEnd] != '\n' && buf[lineEnd] != '\r') lineEnd++;
+                if (lineEnd == filled && !eof) break;                          // continues in the next read
+                if (lineEnd + 1 == filled && buf[lineEnd] == '\r' && !eof) break; // may be the first half of "\r\n"
+                int next = lineEnd;
+                if (next < filled) {
+                    next++;
+                    if (buf[lineEnd] == '\r' && next < filled && buf[next] == '\n') next++;
+                }
+                // A line ending in a lone '\r' at the end of the file may yet become "\r\n"
+                boolean terminated = lineEnd < filled && (buf[next - 1] == '\n' || next < filled);
+                long checksum = checksum(buf, pos, lineEnd);
+                ArrayDeque<Integer> same = old.get(checksum);
+                int id;
+                if (same != null && !same.isEmpty()) {
+                    id = same.poll();
+                } else {
+                    parsed = null;
+                    parser.parseLine(buf, pos, lineEnd, lines + 1L);
+                    id = parsed == null ? -1 : store.insert(parsed);
+                    if (id >= 0) added++;
+                }
+                addLine(bufferStart + pos, checksum, id);
+                linesRead++;
+                lastTerminated = terminated;
+                pos = next;
+            }
+            bufferStart += pos;
+            System.arraycopy(buf, pos, buf, 0, filled - pos);
+            filled -= pos;
+            if (eof && filled == 0) break;
+        }
+        end = bufferStart;
+        if (lines == 0) lastTerminated = true;
+
+        int removed = 0;
+        for (ArrayDeque<Integer> gone : old.values()) {
+            for (int id : gone) {
+                if (id >= 0 && store.removeById(id) != null) removed++;
+            }
+        }
+        return new Change(file, from == 0, end - scanStart, linesRead, added, removed, System.nanoTime() - startNanos);
+    }
+
+    private void addLine(long start, long checksum, int id) {
+        if (lines == starts.length) {
+            starts = Arrays.copyOf(starts, lines * 2);
+            checksums = Arrays.copyOf(checksums, lines * 2);
+            ids = Arrays.copyOf(ids, lines * 2);
+        }
+        starts[lines] = start;
+        checksums[lines] = checksum;
+        ids[lines++] = id;
+    }
+
+    /** Removes the listings of the lines from {@code from} on and forgets those lines. */
+    private int removeLines(int from) {
+        int removed = 0;
+        for (int i = from; i < lines; i++) {
+            if (ids[i] >= 0 && store.removeById(ids[i]) != null) removed++;
+        }
+        lines = from;
+        return removed;
+    }
+
+    /** @return the CRC-32 of a line in the high half and its length in the low half */
+    private long checksum(byte[] buf, int from, int to) {
+        crc.reset();
+        crc.update(buf, from, to - from);
+        return crc.getValue() << 32 | (to - from);
+    }
+}
@@ -0,0 +1,235 @@
+package realestate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+
+/**
+ * Stress test of {@link ListingFileTracker}: a file is appended to, truncated, edited, shuffled
+ * and deleted at random, and after every refresh or rescan the listings in the store are
+ * compared with a fresh parse of the file. Also checks that an edit of a file that grew at the
+ * same time is found, by the refresh itself in a short file and by
+ * {@link ListingWatcher#rescan()} in a long one.
+ * <p>
+ * Usage: {@code java realestate.ListingFileTrackerStressTest [seeds]}, 300 seeds of 40 steps
+ * by default. Exits with status 1 on the first violation.
+ */
+public class ListingFileTrackerStressTest {
+
+    private static final String[] CITIES = {"Budapest", "Eger", "Debrecen", "Győr"};
+    private static final String[] GENRES = {"CONDOMINIUM", "FAMILYHOUSE", "FARM", "BAD"};
+    private static final int STEPS = 40;
+
+    private int checks;
+    private int appends;
+    private int editsWithAppend;
+    private int foundByRescan;
+
+    public static void main(String[] args) throws IOException {
+        LoggerConfig.getLogger().setLevel(Level.OFF);
+        long seeds = args.length > 0 ? Long.parseLong(args[0]) : 300;
+        ListingFileTrackerStressTest test = new ListingFileTrackerStressTest();
+        try {
+            test.editedLineOfGrownFile();
+            test.rescanFindsEditOfLongFile();
+            for (long seed = 1; seed <= seeds; seed++) test.run(seed);
+        } catch (AssertionError e) {
+            System.out.println("FAIL: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Listing file tracker OK: " + test.checks + " refreshes matched a fresh parse, "
+                + test.appends + " read as appends, " + test.editsWithAppend + " edits of grown files, "
+                + test.foundByRescan + " found by a rescan");
+    }
+
+    /** A line edited in place while another is appended must not be taken for an append. */
+    private void editedLineOfGrownFile() throws IOException {
+        Path file = Files.createTempFile("tracker", ".txt");
+        try {
+            PropertyStore store = new PropertyStore();
+            ListingFileTracker tracker = new ListingFileTracker(file, store, (n, e, l, d) -> {});
+            Files.writeString(file, "REALESTATE#Budapest#100000#50#2#CONDOMINIUM\nREALESTATE#Eger#120000#60#3#FARM\n");
+            tracker.refresh();
+            Files.writeString(file, "REALESTATE#Budapest#900000#50#2#CONDOMINIUM\nREALESTATE#Eger#120000#60#3#FARM\n"
+                    + "REALESTATE#Győr#130000#70#3#FARM\n");
+            ListingFileTracker.Change change = tracker.refresh();
+            check(change.fullScan(), "edit of a grown file read as an append: " + change);
+            checkMatches(store, file, "edited line of a grown file");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** An edit of a long file that grew may slip past the sample, but not past a rescan. */
+    private void rescanFindsEditOfLongFile() throws IOException {
+        Path file = Files.createTempFile("tracker", ".txt");
+        PropertyStore watched = new PropertyStore();
+        try (ListingWatcher watcher = new ListingWatcher(watched, (f, n, e, l, d) -> {})) {
+            Random random = new Random(1);
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 1000; i++) content.append(listing(random)).append('\n');
+            Files.writeString(file, content);
+            PropertyStore store = new PropertyStore();
+            ListingFileTracker tracker = new ListingFileTracker(file, store, (n, e, l, d) -> {});
+            tracker.refresh();
+            watcher.watchFile(file);
+
+            editDigit(content, random);
+            content.append(listing(random)).append('\n');
+            Files.writeString(file, content);
+            tracker.refresh();
+            tracker.rescan();
+            checkMatches(store, file, "tracker rescan of a long file");
+
+            List<ListingFileTracker.Change> changes = watcher.rescan();
+            check(changes.size() == 1 && changes.get(0).fullScan(), "watcher rescan: " + changes);
+            checkMatches(watched, file, "watcher rescan of a long file");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void run(long seed) throws IOException {
+        Random random = new Random(seed);
+        Path file = Files.createTempFile("tracker", ".txt");
+        try {
+            StringBuilder content = new StringBuilder();
+            PropertyStore store = new PropertyStore();
+            ListingFileTracker tracker = new ListingFileTracker(file, store, (n, e, l, d) -> {});
+            boolean exists = true;
+            for (int step = 0; step < STEPS; step++) {
+                int op = random.nextInt(10);
+                String before = content.toString();
+                switch (op) {
+                    case 0, 1, 2 -> {
+                        int n = random.nextInt(20);
+                        for (int i = 0; i < n; i++) content.append(line(random)).append(newline(random));
+                    }
+                    case 3 -> content.append(line(random)); // without a terminator
+                    case 4 -> {
+                        List<String> lines = new ArrayList<>(Arrays.asList(content.toString().split("\n", -1)));
+                        if (lines.size() > 2) {
+                            lines.remove(random.nextInt(lines.size() - 1));
+                            content = new StringBuilder(String.join("\n", lines));
+                        }
+                    }
+                    case 5 -> {
+                        if (content.length() > 0) {
+                            int i = random.nextInt(content.length());
+                            char c = content.charAt(i);
+                            if (c != '\n' && c != '\r') content.setCharAt(i, (char) ('0' + random.nextInt(10)));
+                        }
+                    }
+                    case 6 -> {
+                        if (content.length() > 0) content.setLength(random.nextInt(content.length()));
+                    }
+                    case 7 -> {
+                        if (random.nextInt(4) == 0) {
+                            Files.deleteIfExists(file);
+                            exists = false;
+                        }
+                    }
+                    case 8 -> {
+                        List<String> lines = new ArrayList<>(Arrays.asList(content.toString().split("\n", -1)));
+                        Collections.shuffle(lines, random);
+                        content = new StringBuilder(String.join("\n", lines));
+                    }
+                    case 9 -> {
+                        // An edit that keeps the length of a line, and an append
+                        if (editDigit(content, random)) editsWithAppend++;
+                        content.append(listing(random)).append('\n');
+                    }
+                    default -> throw new IllegalStateException();
+                }
+                if (op != 7 || exists) {
+                    Files.writeString(file, content.toString(), StandardCharsets.UTF_8);
+                    exists = true;
+                }
+                ListingFileTracker.Change change = random.nextInt(5) == 0 ? tracker.rescan() : tracker.refresh();
+                Map<String, Integer> expected = exists ? parse(file) : Map.of();
+                if (op == 9 && !expected.equals(listings(store))) {
+                    // Only a long file may hide an edit from the refresh
+                    check(before.split("\r\n|\r|\n", -1).length > ListingFileTracker.SAMPLED_LINES + 2,
+                            "seed " + seed + " step " + step + ": edit of a short grown file missed");
+                    tracker.rescan();
+                    foundByRescan++;
+                }
+                check(expected.equals(listings(store)), "seed " + seed + " step " + step + " op " + op
+                        + ": store differs from a fresh parse\nexpected " + expected + "\ngot " + listings(store));
+                if (exists && !change.fullScan() && content.toString().startsWith(before)) {
+                    appends++;
+                    check(change.bytesRead() <= content.length() - before.length() + 200,
+                            "seed " + seed + " step " + step + ": append read too much: " + change);
+                }
+                checks++;
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** Replaces a digit of a complete line with another digit. */
+    private static boolean editDigit(StringBuilder content, Random random) {
+        int lastTerminator = Math.max(content.lastIndexOf("\n"), content.lastIndexOf("\r"));
+        for (int attempt = 0; attempt < 20 && lastTerminator > 0; attempt++) {
+            int i = random.nextInt(lastTerminator);
+            char c = content.charAt(i);
+            if (c >= '0' && c <= '9') {
+                content.setCharAt(i, (char) ('0' + (c - '0' + 1 + random.nextInt(9)) % 10));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String line(Random random) {
+        if (random.nextInt(10) == 0) return "";
+        if (random.nextInt(10) == 0) return "junk#line";
+        return listing(random);
+    }
+
+    private static String listing(Random random) {
+        String common = CITIES[random.nextInt(CITIES.length)] + "#" + (100000 + random.nextInt(5) * 1000) + "#"
+                + (30 + random.nextInt(5)) + "#" + (1 + random.nextInt(4)) + "#";
+        if (random.nextBoolean()) return "REALESTATE#" + common + GENRES[random.nextInt(GENRES.length)];
+        return "PANEL#" + common + GENRES[random.nextInt(3)] + "#" + random.nextInt(10) + "#"
+                + (random.nextBoolean() ? "yes" : "no");
+    }
+
+    private static String newline(Random random) {
+        int x = random.nextInt(10);
+        return x == 0 ? "\r\n" : x == 1 ? "\r" : "\n";
+    }
+
+    private static Map<String, Integer> parse(Path file) throws IOException {
+        Map<String, Integer> listings = new HashMap<>();
+        if (!Files.exists(file)) return listings;
+        new ListingParser(p -> listings.merge(p.toString(), 1, Integer::sum), (n, e, l, d) -> {}).parse(file);
+        return listings;
+    }
+
+    private static Map<String, Integer> listings(PropertyStore store) {
+        Map<String, Integer> listings = new HashMap<>();
+        for (RealEstate p : store) listings.merge(p.toString(), 1, Integer::sum);
+        return listings;
+    }
+
+    private static void checkMatches(PropertyStore store, Path file, String what) throws IOException {
+        Map<String, Integer> expected = parse(file);
+        check(expected.equals(listings(store)), what + ": store differs from a fresh parse\nexpected " + expected
+                + "\ngot " + listings(store));
+    }
+
+    private static void check(boolean condition, String failure) {
+        if (!condition) throw new AssertionError(failure);
+    }
+}
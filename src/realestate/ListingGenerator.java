@@ -0,0 +1,117 @@
+package realestate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Generates synthetic listings in the {@code realestates.txt} format.
+ * <p>
+ * Output depends only on the seed and the number of lines, so benchmark inputs can be
+ * regenerated anywhere. About a third of the lines are Panel flats; cities, prices and sizes
+ * are drawn from ranges like the ones in the shipped file, and a small share of the lines
+ * uses the genre {@code FLAT}, which the real file contains and the parser rejects.
+ * <p>
+ * Usage: {@code java realestate.ListingGenerator <lines> [file] [seed]}; the file defaults to
+ * {@code realestates.txt} and the seed to {@link #DEFAULT_SEED}.
+ */
+public class ListingGenerator {
+
+    /** The seed benchmarks use. */
+    public static final long DEFAULT_SEED = 20240601L;
+
+    /** Share of lines with the unknown genre FLAT. */
+    static final double UNKNOWN_GENRE_SHARE = 0.01;
+
+    private static final String[] CITIES = {
+            "Budapest", "Debrecen", "Szeged", "Miskolc", "Pécs", "Győr", "Nyíregyháza", "Kecskemét",
+            "Székesfehérvár", "Szombathely", "Szolnok", "Tatabánya", "Kaposvár", "Érd", "Veszprém",
+            "Békéscsaba", "Zalaegerszeg", "Sopron", "Eger", "Nagykanizsa", "Kisvárda", "Tiszaújváros"
+    };
+    private static final Genre[] GENRES = Genre.values();
+
+    private final SplittableRandom random;
+
+    /**
+     * Creates a generator.
+     * @param seed the seed; equal seeds give equal output
+     */
+    public ListingGenerator(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Writes listings to a file, replacing it.
+     * @param file the file
+     * @param lines the number of lines
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file, long lines) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder(64);
+            for (long i = 0; i < lines; i++) {
+                line.setLength(0);
+                appendLine(line);
+                out.append(line).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Creates listings in memory, drawn like the lines of {@link #write}; the invalid lines
+     * are left out.
+     * @param count the number of listings
+     * @param sink receives the listings
+     */
+    public void generate(int count, Consumer<? super RealEstate> sink) {
+        for (int i = 0; i < count; i++) {
+            String city = CITIES[random.nextInt(CITIES.length)];
+            double price = 80_000 + 5_000 * random.nextInt(60);
+            int sqm = 25 + random.nextInt(176);
+            int rooms = 1 + Math.min(sqm / 30, random.nextInt(7));
+            Genre genre = GENRES[random.nextInt(GENRES.length)];
+            if (random.nextInt(3) == 0) {
+                sink.accept(new Panel(city, price, sqm, rooms, genre, random.nextInt(11), random.nextBoolean()));
+            } else {
+                sink.accept(new RealEstate(city, price, sqm, rooms, genre));
+            }
+        }
+    }
+
+    private void appendLine(StringBuilder line) {
+        boolean panel = random.nextInt(3) == 0;
+        int sqm = 25 + random.nextInt(176);
+        line.append(panel ? "PANEL" : "REALESTATE")
+                .append('#').append(CITIES[random.nextInt(CITIES.length)])
+                .append('#').append(80_000 + 5_000 * random.nextInt(60))
+                .append('#').append(sqm)
+                .append('#').append(1 + Math.min(sqm / 30, random.nextInt(7)))
+                .append('#').append(random.nextDouble() < UNKNOWN_GENRE_SHARE ? "FLAT" : GENRES[random.nextInt(GENRES.length)].name());
+        if (panel) {
+            line.append('#').append(random.nextInt(11))
+                    .append('#').append(random.nextBoolean() ? "yes" : "no");
+        }
+    }
+
+    /**
+     * Writes a listings file.
+     * @param args the number of lines, then optionally the file and the seed
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java realestate.ListingGenerator <lines> [file] [seed]");
+            System.exit(2);
+        }
+        long lines = Long.parseLong(args[0]);
+        Path file = Paths.get(args.length > 1 ? args[1] : "realestates.txt");
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        new ListingGenerator(seed).write(file, lines);
+        System.out.println("Wrote " + lines + " listings to " + file + " (seed " + seed + ")");
+    }
+}
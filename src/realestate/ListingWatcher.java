@@ -0,0 +1,235 @@
+package realestate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Watches listings files with a {@link WatchService} and applies their changes to a
+ * {@link PropertyStore} as they happen, through one {@link ListingFileTracker} per file.
+ * <p>
+ * Files can be watched one by one, or by directory, in which case {@code *.txt} files created
+ * there later are loaded too. Writers usually change a file in several steps, so after the
+ * first event the watcher waits until the directory has been quiet for {@link #QUIET_MILLIS}
+ * before it refreshes the files that changed, but no longer than {@link #MAX_DELAY_MILLIS},
+ * so a feed that is appended to all the time is still applied a piece at a time. A deleted file takes its listings out of the
+ * store; if it comes back it is loaded again. {@link #run} also reads every file in full
+ * every {@link #RESCAN_MILLIS}, see {@link #rescan()}, to find edits a refresh took for an
+ * append. Everything happens on the thread calling {@link #poll}, {@link #rescan()} or
+ * {@link #run}, which is also the thread the store is changed on.
+ */
+public final class ListingWatcher implements Closeable {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    /** Time without events after which a burst of changes is applied. */
+    static final long QUIET_MILLIS = 200;
+    /** Longest time from the first event of a burst until it is applied, however busy the files. */
+    static final long MAX_DELAY_MILLIS = 1_000;
+    /** Time between two full reads of every file by {@link #run}. */
+    static final long RESCAN_MILLIS = 60_000;
+
+    private static final PathMatcher LISTINGS_FILES = FileSystems.getDefault().getPathMatcher("glob:*.txt");
+
+    private final PropertyStore store;
+    private final IngestionService.ErrorSink errorSink;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private final Map<Path, ListingFileTracker> trackers = new LinkedHashMap<>();
+
+    /**
+     * Creates a watcher that watches nothing yet.
+     * @param store the store to keep the listings in
+     * @param errorSink receives rejected lines with their file and line number
+     * @throws IOException if the file system cannot be watched
+     */
+    public ListingWatcher(PropertyStore store, IngestionService.ErrorSink errorSink) throws IOException {
+        this.store = store;
+        this.errorSink = errorSink;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches a file and loads it now. The file need not exist yet.
+     * @param file a listings file
+     * @return what loading it changed
+     * @throws IOException if the file exists but cannot be read, or its directory cannot be watched
+     */
+    public ListingFileTracker.Change watchFile(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath().normalize();
+        register(absolute.getParent());
+        return tracker(absolute).refresh();
+    }
+
+    /**
+     * Watches the {@code *.txt} files of a directory, including ones created later, and loads
+     * the present ones now.
+     * @param directory the directory
+     * @return what loading its files changed
+     * @throws IOException if the directory cannot be read or watched
+     */
+    public List<ListingFileTracker.Change> watchDirectory(Path directory) throws IOException {
+        Path absolute = directory.toAbsolutePath().normalize();
+        register(absolute);
+        watchedDirectories.add(absolute);
+        List<ListingFileTracker.Change> changes = new ArrayList<>();
+        for (Path file : IngestionService.filesIn(absolute)) {
+            changes.add(tracker(file).refresh());
+        }
+        return changes;
+    }
+
+    /** @return the number of files watched */
+    public int fileCount() {
+        return trackers.size();
+    }
+
+    /**
+     * Waits for watched files to change and applies the changes.
+     * @param timeout how long to wait for a first change
+     * @param unit the unit of {@code timeout}
+     * @return one entry per file that was refreshed, empty if nothing changed in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<ListingFileTracker.Change> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        WatchKey key = watchService.poll(timeout, unit);
+        if (key == null) return List.of();
+        Set<Path> changed = new LinkedHashSet<>();
+        // A file appended to without pause is refreshed every MAX_DELAY_MILLIS all the same
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS);
+        do {
+            collect(key, changed);
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            key = left > 0 ? watchService.poll(Math.min(QUIET_MILLIS, left), TimeUnit.MILLISECONDS) : null;
+        } while (key != null);
+
+        List<ListingFileTracker.Change> changes = new ArrayList<>(changed.size());
+        for (Path file : changed) {
+            try {
+                ListingFileTracker.Change change = tracker(file).refresh();
+                changes.add(change);
+                logChange(change);
+            } catch (IOException e) {
+                log.severe("Could not refresh " + file + ": " + e.getMessage() + " → Keeping its listings.");
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Reads every watched file in full and applies what changed, including edits that a
+     * refresh after the file grew took for an append; see {@link ListingFileTracker}.
+     * @return one entry per file
+     */
+    public List<ListingFileTracker.Change> rescan() {
+        List<ListingFileTracker.Change> changes = new ArrayList<>(trackers.size());
+        for (ListingFileTracker tracker : trackers.values()) {
+            try {
+                ListingFileTracker.Change change = tracker.rescan();
+                changes.add(change);
+                if (change.changed()) logChange(change);
+            } catch (IOException e) {
+                log.severe("Could not rescan " + tracker.file() + ": " + e.getMessage() + " → Keeping its listings.");
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Applies changes as they happen until the watcher is closed or the thread interrupted,
+     * and rescans every file every {@link #RESCAN_MILLIS}.
+     * @param onChange called after every burst of changes, or rescan, that changed the store
+     * @throws InterruptedException if interrupted
+     */
+    public void run(Consumer<List<ListingFileTracker.Change>> onChange) throws InterruptedException {
+        try {
+            long lastRescan = System.nanoTime();
+            while (true) {
+                long wait = RESCAN_MILLIS - (System.nanoTime() - lastRescan) / 1_000_000;
+                List<ListingFileTracker.Change> changes = poll(Math.max(0, wait), TimeUnit.MILLISECONDS);
+                if (System.nanoTime() - lastRescan >= RESCAN_MILLIS * 1_000_000) {
+                    changes = new ArrayList<>(changes);
+                    changes.addAll(rescan());
+                    lastRescan = System.nanoTime();
+                }
+                if (changes.stream().anyMatch(ListingFileTracker.Change::changed)) onChange.accept(changes);
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.info("Stopped watching " + trackers.size() + " file(s)");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void register(Path directory) throws IOException {
+        if (directories.containsValue(directory)) return;
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+    }
+
+    private ListingFileTracker tracker(Path file) {
+        return trackers.computeIfAbsent(file, f -> new ListingFileTracker(f, store,
+                (lineNumber, error, line, detail) -> errorSink.onError(f, lineNumber, error, line, detail)));
+    }
+
+    /** Adds the watched files a key reports events for, and resets the key. */
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost: refresh everything in the directory
+                for (Path file : trackers.keySet()) {
+                    if (file.getParent().equals(directory)) changed.add(file);
+                }
+                if (watchedDirectories.contains(directory)) {
+                    try {
+                        changed.addAll(IngestionService.filesIn(directory));
+                    } catch (IOException e) {
+                        log.severe("Could not list directory " + directory + ": " + e.getMessage());
+                    }
+                }
+                continue;
+            }
+            Path name = (Path) event.context();
+            Path file = directory.resolve(name);
+            if (trackers.containsKey(file)
+                    || (watchedDirectories.contains(directory) && LISTINGS_FILES.matches(name) && !Files.isDirectory(file))) {
+                changed.add(file);
+            }
+        }
+        if (!key.reset()) {
+            log.warning("Directory " + directory + " can no longer be watched");
+            directories.remove(key);
+        }
+    }
+
+    private static void logChange(ListingFileTracker.Change c) {
+        log.info("Refreshed " + c.file() + (c.fullScan() ? " (full scan)" : " (appended)") + ": read "
+                + c.bytesRead() + " bytes, " + c.linesRead() + " lines; " + c.added() + " added, "
+                + c.removed() + " removed in " + c.nanos() / 1_000_000 + " ms");
+    }
+}
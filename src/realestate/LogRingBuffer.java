@@ -0,0 +1,85 @@
+package realestate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer.
+ * <p>
+ * Every slot carries a sequence number telling whose turn it is: a producer claims a slot by
+ * advancing the tail with a CAS once the slot's sequence says it is free, writes the item and
+ * publishes it by bumping the sequence; the consumer takes items in order and hands the slot
+ * back by setting its sequence one lap ahead. Neither side ever blocks; a full queue makes
+ * {@link #offer} fail and an empty one makes {@link #poll} return null.
+ *
+ * @param <E> the item type
+ */
+final class LogRingBuffer<E> {
+
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // written by the consumer only
+
+    /**
+     * Creates a queue.
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        items = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an item if there is room; safe to call from any thread.
+     * @param item the item
+     * @return false if the queue was full
+     */
+    boolean offer(E item) {
+        long t;
+        int slot;
+        while (true) {
+            t = tail.get();
+            slot = (int) t & mask;
+            long diff = sequences.get(slot) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1)) break;
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+        items[slot] = item;
+        sequences.lazySet(slot, t + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest item; must only be called from the consumer thread.
+     * @return the item, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head;
+        int slot = (int) h & mask;
+        if (sequences.get(slot) != h + 1) return null;
+        E item = (E) items[slot];
+        items[slot] = null;
+        sequences.lazySet(slot, h + items.length);
+        head = h + 1;
+        return item;
+    }
+
+    /** @return whether the queue looks empty; exact only when producers are quiet */
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    /** @return the number of slots */
+    int capacity() {
+        return items.length;
+    }
+}
@@ -3,33 +3,63 @@ package realestate;
 import java.io.IOException;
 import java.util.logging.*;
 
+/**
+ * The one logging setup of the application: every class logs through {@link #getLogger()}.
+ * <p>
+ * Records go through an {@link AsyncLogHandler} to {@code realEstateApp.log} and, from INFO
+ * up, to the console. Hot paths log at FINE or below with lazily built messages, so at the
+ * default INFO level they cost a level check. Tunable with system properties:
+ * <ul>
+ *   <li>{@code realestate.log.level} – logger level, default INFO</li>
+ *   <li>{@code realestate.log.file} – log file, default realEstateApp.log</li>
+ *   <li>{@code realestate.log.buffer} – records the buffer holds, default 8192</li>
+ *   <li>{@code realestate.log.overflow} – DROP or BLOCK when the buffer is full, default DROP</li>
+ *   <li>{@code realestate.log.callers} – record calling class and method, default false</li>
+ * </ul>
+ */
 public class LoggerConfig {
     private static final Logger LOGGER = Logger.getLogger("realestate");
 
     static {
-        try {
-            // Remove default console handlers
-            LogManager.getLogManager().reset();
-            LOGGER.setLevel(Level.ALL);
-
-            // Console handler
-            ConsoleHandler ch = new ConsoleHandler();
-            ch.setLevel(Level.INFO);
-            ch.setFormatter(new SimpleFormatter());
-            LOGGER.addHandler(ch);
+        // Remove default console handlers
+        LogManager.getLogManager().reset();
+        LOGGER.setUseParentHandlers(false);
+        LOGGER.setLevel(parseLevel(System.getProperty("realestate.log.level"), Level.INFO));
 
-            // File handler – creates realEstateApp.log in project root
-            FileHandler fh = new FileHandler("realEstateApp.log", true);
-            fh.setLevel(Level.ALL);
-            fh.setFormatter(new SimpleFormatter());
-            LOGGER.addHandler(fh);
+        // Console handler, fed by the writer thread
+        ConsoleHandler ch = new ConsoleHandler();
+        ch.setLevel(Level.INFO);
+        ch.setFormatter(new SimpleFormatter());
 
-        } catch (IOException e) {
+        try {
+            // Async handler – appends to realEstateApp.log in project root
+            AsyncLogHandler handler = new AsyncLogHandler(
+                    System.getProperty("realestate.log.file", "realEstateApp.log"),
+                    Integer.getInteger("realestate.log.buffer", 8192),
+                    AsyncLogHandler.OverflowPolicy.valueOf(System.getProperty("realestate.log.overflow", "DROP").toUpperCase()),
+                    Boolean.getBoolean("realestate.log.callers"),
+                    ch);
+            handler.setLevel(Level.ALL);
+            handler.setFormatter(new SimpleFormatter());
+            LOGGER.addHandler(handler);
+
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println("Could not set up logger: " + e.getMessage());
+            LOGGER.addHandler(ch);
         }
     }
 
     public static Logger getLogger() {
         return LOGGER;
     }
-}
\ No newline at end of file
+
+    private static Level parseLevel(String name, Level fallback) {
+        if (name == null) return fallback;
+        try {
+            return Level.parse(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", using " + fallback);
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package realestate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Market aggregates of a {@link PropertyStore} by city, {@link Genre} and number of rooms,
+ * kept in a bounded cache that follows the store.
+ * <p>
+ * A cell of the cube holds the count, the sum, minimum and maximum of the total prices, the
+ * sum of the prices per sqm and the sum of the sqm per room of the listings of one city
+ * (case-insensitively), genre and room bucket: 0, 1, 2, 3, 4 or 5+ rooms, half rooms rounded
+ * down. The whole cube is built in one pass over the store, in parallel for large stores.
+ * <p>
+ * Cells are kept in a cache of bounded size, with the least recently used cell dropped when
+ * it is full, and looked up by hash in O(1). The cube listens to the store: adding, removing,
+ * discounting or re-pricing a listing drops the one cell the listing is in, and only that
+ * cell. A cell that is not cached, because it was dropped or never asked for, is computed
+ * again from the listings of its city when it is next asked for.
+ * <p>
+ * The sums of the prices per sqm are floating point and summed in whatever order the parallel
+ * pass visits the listings, so two builds can differ in the last bits. Not thread-safe; use it
+ * from the thread that changes the store.
+ */
+public final class MarketCube implements PropertyStore.Listener {
+
+    /** Default number of cells cached. */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /** Room bucket of listings with this many rooms or more. */
+    public static final int MAX_ROOM_BUCKET = 5;
+
+    /**
+     * The aggregates of one cell.
+     * @param city the city, as spelled by one of its listings
+     * @param genre the genre
+     * @param rooms the room bucket, see {@link #roomBucket(double)}
+     * @param count the number of listings
+     * @param totalPriceSum the sum of their total prices
+     * @param minTotalPrice the lowest total price, 0 if there are no listings
+     * @param maxTotalPrice the highest total price, 0 if there are no listings
+     * @param pricePerSqmSum the sum of their prices per sqm
+     * @param sqmPerRoomSum the sum of their {@link RealEstate#averageSqmPerRoom()}
+     */
+    public record Cell(String city, Genre genre, int rooms, long count, long totalPriceSum, long minTotalPrice,
+                       long maxTotalPrice, double pricePerSqmSum, double sqmPerRoomSum) {
+
+        /** @return the average total price, NaN if there are no listings */
+        public double averageTotalPrice() {
+            return count == 0 ? Double.NaN : (double) totalPriceSum / count;
+        }
+
+        /** @return the average price per sqm, NaN if there are no listings */
+        public double averagePricePerSqm() {
+            return count == 0 ? Double.NaN : pricePerSqmSum / count;
+        }
+
+        /** @return the average sqm per room, NaN if there are no listings */
+        public double averageSqmPerRoom() {
+            return count == 0 ? Double.NaN : sqmPerRoomSum / count;
+        }
+    }
+
+    // A cell: lower-case city, genre and room bucket
+    private record Key(String city, Genre genre, int rooms) {
+        static Key of(RealEstate property) {
+            return new Key(property.getCity().toLowerCase(Locale.ROOT), property.getGenre(),
+                    roomBucket(property.getNumberOfRooms()));
+        }
+    }
+
+    private final PropertyStore store;
+    private final LinkedHashMap<Key, Cell> cache;
+    // Number of listings in every non-empty cell, cached or not
+    private final Map<Key, Integer> populations = new HashMap<>();
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    /**
+     * Builds the cube of a store, in one pass over its listings, and follows the store from
+     * then on.
+     * @param store the store
+     * @param capacity the number of cells cached, at least 1
+     */
+    public MarketCube(PropertyStore store, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        this.store = store;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cell> eldest) {
+                return size() > capacity;
+            }
+        };
+        Map<Key, Accumulator> cells = compute(idsInIdOrder(), null, null);
+        // Smallest first, so that if they do not all fit the largest cells stay cached
+        List<Map.Entry<Key, Accumulator>> entries = new ArrayList<>(cells.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().count));
+        for (Map.Entry<Key, Accumulator> e : entries) {
+            populations.put(e.getKey(), (int) e.getValue().count);
+            cache.put(e.getKey(), e.getValue().toCell(e.getKey()));
+        }
+        store.addListener(this);
+    }
+
+    /** Stops following the store. */
+    public void detach() {
+        store.removeListener(this);
+    }
+
+    /**
+     * @param rooms a number of rooms
+     * @return its room bucket: the whole number of rooms, from 0 to {@value #MAX_ROOM_BUCKET}
+     */
+    public static int roomBucket(double rooms) {
+        if (!(rooms >= 1)) return 0;
+        return (int) Math.min(MAX_ROOM_BUCKET, Math.floor(rooms));
+    }
+
+    @Override
+    public void added(int id, RealEstate property, long totalPrice) {
+        Key key = Key.of(property);
+        populations.merge(key, 1, Integer::sum);
+        invalidate(key);
+    }
+
+    @Override
+    public void removed(int id, RealEstate property, long totalPrice) {
+        Key key = Key.of(property);
+        populations.computeIfPresent(key, (k, n) -> n == 1 ? null : n - 1);
+        invalidate(key);
+    }
+
+    @Override
+    public void cleared() {
+        invalidations += cache.size();
+        cache.clear();
+        populations.clear();
+    }
+
+    /**
+     * Looks up the cell of a city, genre and number of rooms, computing it from the listings
+     * of the city if it is not cached.
+     * @param city the city, matched case-insensitively
+     * @param genre the genre
+     * @param rooms a number of rooms, mapped to its bucket
+     * @return the cell; its count is 0 if it has no listings
+     */
+    public Cell cell(String city, Genre genre, double rooms) {
+        Key key = new Key(city.toLowerCase(Locale.ROOT), genre, roomBucket(rooms));
+        Cell cell = cache.get(key);
+        if (cell != null) {
+            hits++;
+            return cell;
+        }
+        misses++;
+        if (!populations.containsKey(key)) {
+            return new Cell(city, genre, key.rooms(), 0, 0, 0, 0, 0, 0);
+        }
+        return load(Set.of(key)).get(0);
+    }
+
+    /**
+     * Returns every cell that has listings, by city, genre and room bucket. Cells that are not
+     * cached are computed together, reading the listings of each of their cities once.
+     * @return the cells
+     */
+    public List<Cell> cells() {
+        List<Cell> cells = new ArrayList<>(populations.size());
+        Set<Key> missing = new HashSet<>();
+        for (Key key : populations.keySet()) {
+            Cell cell = cache.get(key);
+            if (cell != null) {
+                hits++;
+                cells.add(cell);
+            } else {
+                misses++;
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) cells.addAll(load(missing));
+        cells.sort(Comparator.comparing((Cell c) -> c.city().toLowerCase(Locale.ROOT))
+                .thenComparing(Cell::genre).thenComparingInt(Cell::rooms));
+        return cells;
+    }
+
+    /** @return the number of cells that have listings */
+    public int cellCount() {
+        return populations.size();
+    }
+
+    /** @return the number of cells cached */
+    public int cachedCount() {
+        return cache.size();
+    }
+
+    /** @return the number of cells found in the cache */
+    public long hits() {
+        return hits;
+    }
+
+    /** @return the number of cells that had to be computed */
+    public long misses() {
+        return misses;
+    }
+
+    /** @return the number of cached cells dropped because their listings changed */
+    public long invalidations() {
+        return invalidations;
+    }
+
+    /** @return every cell that has listings as text, one per line */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Market by city, genre and rooms:").append(System.lineSeparator());
+        for (Cell c : cells()) {
+            sb.append(String.format("  - %s %s %s: %d listings, avg %.0f Ft (min %d Ft, max %d Ft), "
+                            + "avg %.0f Ft/m², avg %.2f m²/room%n",
+                    c.city(), c.genre(), c.rooms() == MAX_ROOM_BUCKET ? MAX_ROOM_BUCKET + "+ rooms" : c.rooms() + " rooms",
+                    c.count(), c.averageTotalPrice(), c.minTotalPrice(), c.maxTotalPrice(),
+                    c.averagePricePerSqm(), c.averageSqmPerRoom()));
+        }
+        return sb.toString();
+    }
+
+    private void invalidate(Key key) {
+        if (cache.remove(key) != null) invalidations++;
+    }
+
+    /** Computes and caches cells that have listings, reading only the listings of their cities. */
+    private List<Cell> load(Set<Key> keys) {
+        Set<String> cities = new HashSet<>();
+        for (Key key : keys) cities.add(key.city());
+        Map<Key, Accumulator> computed = new HashMap<>();
+        for (String city : cities) {
+            computed.putAll(compute(store.idsInCity(city), city, keys));
+        }
+        List<Cell> cells = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            Cell cell = computed.get(key).toCell(key);
+            cache.put(key, cell);
+            cells.add(cell);
+        }
+        return cells;
+    }
+
+    /** @return the ids of every listing in the order they were added, which is their order in memory */
+    private int[] idsInIdOrder() {
+        int[] ids = new int[store.size()];
+        int n = 0;
+        for (int id = 0, limit = store.idLimit(); id < limit; id++) {
+            if (store.containsId(id)) ids[n++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Aggregates listings into cells, in parallel for many listings.
+     * @param ids the listings
+     * @param city the lower-case city of all of them, or null if they are of several cities
+     * @param wanted the cells to compute, or null for all
+     */
+    private Map<Key, Accumulator> compute(int[] ids, String city, Set<Key> wanted) {
+        IntStream positions = IntStream.range(0, ids.length);
+        if (ids.length >= PropertyStore.PARALLEL_THRESHOLD) positions = positions.parallel();
+        return positions.collect(() -> new Part(city, wanted), (part, i) -> part.add(ids[i]), Part::merge).cells;
+    }
+
+    /** The cells of the listings one thread has aggregated. */
+    private final class Part {
+        private final String city;
+        private final Set<Key> wanted;
+        private final PropertyStore.Cursor property = store.cursor();
+        private final Map<Key, Accumulator> cells = new HashMap<>();
+        // Lower-case city names by spelling, so that each spelling is converted once
+        private final Map<String, String> cityKeys = new HashMap<>();
+
+        Part(String city, Set<Key> wanted) {
+            this.city = city;
+            this.wanted = wanted;
+        }
+
+        void add(int id) {
+            property.moveTo(id);
+            // Reading the name of the city is a cache miss of its own, avoided when it is known
+            String cityKey = city != null ? city
+                    : cityKeys.computeIfAbsent(property.getCity(), c -> c.toLowerCase(Locale.ROOT));
+            Key key = new Key(cityKey, property.getGenre(), roomBucket(property.getNumberOfRooms()));
+            if (wanted != null && !wanted.contains(key)) return;
+            cells.computeIfAbsent(key, k -> new Accumulator(property.getCity())).add(property, store.totalPrice(id));
+        }
+
+        void merge(Part other) {
+            other.cells.forEach((key, cell) -> cells.merge(key, cell, Accumulator::merge));
+        }
+    }
+
+    /** The sums of a cell while it is being computed. */
+    private static final class Accumulator {
+        private final String city;
+        private long count;
+        private long totalPriceSum;
+        private long minTotalPrice = Long.MAX_VALUE;
+        private long maxTotalPrice = Long.MIN_VALUE;
+        private double pricePerSqmSum;
+        private double sqmPerRoomSum;
+
+        Accumulator(String city) {
+            this.city = city;
+        }
+
+        void add(PropertyInterface property, long totalPrice) {
+            count++;
+            totalPriceSum += totalPrice;
+            minTotalPrice = Math.min(minTotalPrice, totalPrice);
+            maxTotalPrice = Math.max(maxTotalPrice, totalPrice);
+            pricePerSqmSum += property.getPrice();
+            sqmPerRoomSum += property.averageSqmPerRoom();
+        }
+
+        Accumulator merge(Accumulator other) {
+            count += other.count;
+            totalPriceSum += other.totalPriceSum;
+            minTotalPrice = Math.min(minTotalPrice, other.minTotalPrice);
+            maxTotalPrice = Math.max(maxTotalPrice, other.maxTotalPrice);
+            pricePerSqmSum += other.pricePerSqmSum;
+            sqmPerRoomSum += other.sqmPerRoomSum;
+            return this;
+        }
+
+        Cell toCell(Key key) {
+            return new Cell(city, key.genre(), key.rooms(), count, totalPriceSum,
+                    minTotalPrice, maxTotalPrice, pricePerSqmSum, sqmPerRoomSum);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package realestate;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Named counters, gauges and latency histograms of the application.
+ * <p>
+ * Metrics are created once, usually into a static final field, and recording is then a
+ * {@link LongAdder} increment or, for a histogram, an increment of one bucket of an
+ * {@link AtomicLongArray}; neither allocates or takes a lock. Reading is done by the
+ * exporters: {@link #registerMBean()} exposes every metric as an attribute of the JMX bean
+ * {@code realestate:type=Metrics}, and {@link #startDump(Path, long)} periodically writes
+ * {@link #toText()} or, for a {@code .json} file, {@link #toJson()} to a local file.
+ */
+public final class MetricsRegistry implements DynamicMBean {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    private static final MetricsRegistry SHARED = new MetricsRegistry();
+
+    /** The name the shared registry is registered with in the platform MBean server. */
+    public static final String OBJECT_NAME = "realestate:type=Metrics";
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private ScheduledExecutorService dumper;
+    private Path dumpFile;
+
+    /** @return the registry the application records into */
+    public static MetricsRegistry shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the counter of a name, creating it on first use.
+     * @param name the metric name
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Returns the histogram of a name, creating it on first use.
+     * @param name the metric name
+     * @return the histogram
+     */
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a value that is read when the metrics are exported, replacing an earlier one
+     * of the same name.
+     * @param name the metric name
+     * @param value supplies the current value
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** Zeroes every counter and histogram; gauges are left alone. */
+    public void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Current values of every metric, sorted by name. A histogram contributes
+     * {@code name.count}, {@code .mean}, {@code .p50}, {@code .p90}, {@code .p99} and {@code .max}.
+     * @return metric name to value
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, c) -> values.put(name, c.get()));
+        gauges.forEach((name, g) -> values.put(name, g.getAsLong()));
+        histograms.forEach((name, h) -> {
+            values.put(name + ".count", h.count());
+            values.put(name + ".mean", h.mean());
+            values.put(name + ".p50", h.percentile(50));
+            values.put(name + ".p90", h.percentile(90));
+            values.put(name + ".p99", h.percentile(99));
+            values.put(name + ".max", h.max());
+        });
+        return values;
+    }
+
+    /** @return every metric as a {@code name value} line */
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        snapshot().forEach((name, value) -> sb.append(name).append(' ').append(value).append('\n'));
+        return sb.toString();
+    }
+
+    /** @return every metric as one flat JSON object */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{");
+        snapshot().forEach((name, value) -> {
+            if (sb.length() > 1) sb.append(',');
+            sb.append("\n  \"").append(name).append("\": ").append(value);
+        });
+        return sb.append("\n}\n").toString();
+    }
+
+    /**
+     * Registers the shared registry as {@value #OBJECT_NAME} in the platform MBean server,
+     * unless it already is.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+        } catch (JMException e) {
+            log.warning("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the metrics to a file now and then every {@code periodMillis} from a daemon
+     * thread, as JSON if the file name ends in {@code .json} and as text otherwise. Each dump
+     * replaces the file as a whole. A running dump is stopped first.
+     * @param file the dump file
+     * @param periodMillis milliseconds between dumps
+     */
+    public synchronized void startDump(Path file, long periodMillis) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "realestate-metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumpFile = file;
+        dumper.scheduleAtFixedRate(() -> dump(file), 0, periodMillis, TimeUnit.MILLISECONDS);
+        log.info("Dumping metrics to " + file + " every " + periodMillis + " ms");
+    }
+
+    /** Stops the periodic dump, if running, after writing one last one. */
+    public synchronized void stopDump() {
+        if (dumper == null) return;
+        dumper.shutdown();
+        try {
+            dumper.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dumper = null;
+        dump(dumpFile);
+    }
+
+    /**
+     * Writes the metrics to a file once, as JSON if the name ends in {@code .json}.
+     * @param file the dump file
+     */
+    public void dump(Path file) {
+        String content = file.toString().toLowerCase(Locale.ROOT).endsWith(".json") ? toJson() : toText();
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, content, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warning("Could not write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    // --- DynamicMBean: one read-only Long attribute per exported value ---
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = snapshot().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> values = snapshot();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Long value = values.get(name);
+            if (value != null) list.add(new Attribute(name, value));
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        switch (actionName) {
+            case "reset" -> {
+                reset();
+                return null;
+            }
+            case "toText" -> {
+                return toText();
+            }
+            case "toJson" -> {
+                return toJson();
+            }
+            default -> throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation " + actionName);
+        }
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Long> values = snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (String name : values.keySet()) {
+            attributes[i++] = new MBeanAttributeInfo(name, "java.lang.Long", name, true, false, false);
+        }
+        MBeanOperationInfo[] operations = {
+                new MBeanOperationInfo("reset", "Zeroes counters and histograms", null, "void", MBeanOperationInfo.ACTION),
+                new MBeanOperationInfo("toText", "Metrics as text", null, "java.lang.String", MBeanOperationInfo.INFO),
+                new MBeanOperationInfo("toJson", "Metrics as JSON", null, "java.lang.String", MBeanOperationInfo.INFO)
+        };
+        return new MBeanInfo(getClass().getName(), "Real estate application metrics", attributes, null, operations, null);
+    }
+
+    /** A monotonically increasing count, striped across threads. */
+    public static final class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        /** Adds one. */
+        public void increment() {
+            adder.increment();
+        }
+
+        /**
+         * Adds a number.
+         * @param n the number to add
+         */
+        public void add(long n) {
+            adder.add(n);
+        }
+
+        /** @return the current count */
+        public long get() {
+            return adder.sum();
+        }
+
+        void reset() {
+            adder.reset();
+        }
+    }
+
+    /**
+     * Distribution of non-negative values, typically durations in nanoseconds.
+     * <p>
+     * Values below 16 get a bucket each; above that every power of two is split into eight
+     * buckets, so a percentile is reported within 12.5% of the true value with a fixed
+     * array of 488 buckets and no allocation when recording.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS;
+        private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records a value; negative values count as 0.
+         * @param value the value
+         */
+        public void record(long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(bucketOf(v));
+            count.increment();
+            sum.add(v);
+            long m = max.get();
+            while (v > m && !max.compareAndSet(m, v)) m = max.get();
+        }
+
+        /**
+         * Records the time since a {@link System#nanoTime()} reading.
+         * @param startNanos the reading taken when the timed section started
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /** @return the number of recorded values */
+        public long count() {
+            return count.sum();
+        }
+
+        /** @return the mean of the recorded values, 0 if there are none */
+        public long mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        /** @return the highest recorded value */
+        public long max() {
+            return max.get();
+        }
+
+        /**
+         * @param percent the percentile, 0 to 100
+         * @return the upper bound of the bucket holding the percentile, capped at {@link #max()}
+         */
+        public long percentile(double percent) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(total * percent / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        static int bucketOf(long v) {
+            if (v < LINEAR) return (int) v;
+            int exponent = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < LINEAR) return bucket;
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+            int sub = (bucket - LINEAR) % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            long lower = (1L << exponent) + sub * width;
+            return lower + width - 1 < 0 ? Long.MAX_VALUE : lower + width - 1;
+        }
+    }
+}
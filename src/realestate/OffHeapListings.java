@@ -0,0 +1,217 @@
+package realestate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Fixed-width rows of listing fields outside the Java heap, for a {@link PropertyStore}
+ * created with {@link PropertyStore#offHeap()}.
+ * <p>
+ * Row layout (32 bytes, native byte order):
+ * <pre>
+ *   0   price per sqm   f64
+ *   8   rooms           f64
+ *   16  sqm             i32
+ *   20  floor           i32, 0 for non-Panels
+ *   24  city            i32, {@link CityDictionary#shared()} id, -1 for none
+ *   28  genre           u8, ordinal
+ *   29  flags           u8, bit 0 present, bit 1 Panel, bit 2 insulated
+ * </pre>
+ * Rows live in chunks of {@value #CHUNK_ROWS} rows (4 MB), allocated as the store grows and
+ * never moved, either as direct buffers or mapped from a file, where the OS pages them in and
+ * out as needed. Direct buffers count against {@code -XX:MaxDirectMemorySize}, which defaults
+ * to the maximum heap size. Rows hold the fields of a {@link RealEstate} or {@link Panel} and
+ * are priced the way those classes price themselves.
+ * <p>
+ * Not thread-safe for writing; reading from several threads is safe while nothing is written.
+ */
+final class OffHeapListings {
+
+    static final int ROW_SIZE = 32;
+    static final int CHUNK_ROWS = 1 << 17;
+
+    private static final int CHUNK_SHIFT = 17;
+    private static final int CHUNK_BYTES = CHUNK_ROWS * ROW_SIZE;
+    private static final int PRICE = 0, ROOMS = 8, SQM = 16, FLOOR = 20, CITY = 24, GENRE = 28, FLAGS = 29;
+    private static final int PRESENT = 1, PANEL = 2, INSULATED = 4;
+    private static final Genre[] GENRES = Genre.values();
+
+    private final Path file;
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunkCount;
+
+    /**
+     * @param file the file to map the rows from, created or overwritten; null for direct
+     *             buffers
+     */
+    OffHeapListings(Path file) {
+        this.file = file;
+    }
+
+    /** @return the bytes of memory or file taken by the rows */
+    long capacityBytes() {
+        return (long) chunkCount * CHUNK_BYTES;
+    }
+
+    /**
+     * Writes a listing into a row, allocating its chunk if needed.
+     * @param row the row, at most one past the highest row written so far
+     * @param property the listing
+     */
+    void set(int row, RealEstate property) {
+        int chunk = row >>> CHUNK_SHIFT;
+        while (chunk >= chunkCount) allocate();
+        ByteBuffer b = chunks[chunk];
+        int at = offset(row);
+        boolean panel = property instanceof Panel;
+        Panel flat = panel ? (Panel) property : null;
+        b.putDouble(at + PRICE, property.getPrice());
+        b.putDouble(at + ROOMS, property.getNumberOfRooms());
+        b.putInt(at + SQM, property.getSqm());
+        b.putInt(at + FLOOR, panel ? flat.getFloor() : 0);
+        b.putInt(at + CITY, property.getCity() == null ? -1 : CityDictionary.shared().idOf(property.getCity()));
+        b.put(at + GENRE, (byte) property.getGenre().ordinal());
+        b.put(at + FLAGS, (byte) (PRESENT | (panel ? PANEL : 0) | (panel && flat.isInsulated() ? INSULATED : 0)));
+    }
+
+    /** @return whether a row holds a listing */
+    boolean present(int row) {
+        return row >>> CHUNK_SHIFT < chunkCount && (flags(row) & PRESENT) != 0;
+    }
+
+    /** Marks a row as holding no listing. */
+    void remove(int row) {
+        chunks[row >>> CHUNK_SHIFT].put(offset(row) + FLAGS, (byte) 0);
+    }
+
+    /** Marks every row as holding no listing. */
+    void clear() {
+        for (int c = 0; c < chunkCount; c++) {
+            for (int at = FLAGS; at < CHUNK_BYTES; at += ROW_SIZE) chunks[c].put(at, (byte) 0);
+        }
+    }
+
+    double price(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getDouble(offset(row) + PRICE);
+    }
+
+    void setPrice(int row, double price) {
+        chunks[row >>> CHUNK_SHIFT].putDouble(offset(row) + PRICE, price);
+    }
+
+    double numberOfRooms(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getDouble(offset(row) + ROOMS);
+    }
+
+    int sqm(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getInt(offset(row) + SQM);
+    }
+
+    int floor(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getInt(offset(row) + FLOOR);
+    }
+
+    int cityId(int row) {
+        return chunks[row >>> CHUNK_SHIFT].getInt(offset(row) + CITY);
+    }
+
+    String city(int row) {
+        int id = cityId(row);
+        return id < 0 ? null : CityDictionary.shared().name(id);
+    }
+
+    Genre genre(int row) {
+        return GENRES[chunks[row >>> CHUNK_SHIFT].get(offset(row) + GENRE)];
+    }
+
+    boolean isPanel(int row) {
+        return (flags(row) & PANEL) != 0;
+    }
+
+    boolean isInsulated(int row) {
+        return (flags(row) & INSULATED) != 0;
+    }
+
+    /**
+     * Applies a discount to the price per sqm of a row, as {@link RealEstate#makeDiscount} does.
+     * @param row the row
+     * @param percentage the percentage discount to apply
+     */
+    void makeDiscount(int row, int percentage) {
+        setPrice(row, price(row) * (100 - percentage) / 100.0);
+    }
+
+    /**
+     * Discounts rows with the {@link BulkDiscount} kernel, as {@link RealEstate#makeDiscount}
+     * would each of them.
+     * @param rows the rows
+     * @param percentage the percentage discount to apply
+     */
+    void discount(int[] rows, int percentage) {
+        double[] prices = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) prices[i] = price(rows[i]);
+        BulkDiscount.discount(prices, 0, prices.length, percentage);
+        for (int i = 0; i < rows.length; i++) setPrice(rows[i], prices[i]);
+    }
+
+    /**
+     * Calculates the total price of a row exactly as the matching RealEstate or Panel would.
+     * @param row the row
+     * @param plan the pricing rules to apply
+     * @return the total price
+     */
+    long totalPrice(int row, PricingPlan plan) {
+        ByteBuffer b = chunks[row >>> CHUNK_SHIFT];
+        int at = offset(row);
+        long total = plan.totalPrice(b.getDouble(at + PRICE), b.getInt(at + SQM), plan.cityMultiplier(b.getInt(at + CITY)));
+        byte flags = b.get(at + FLAGS);
+        return (flags & PANEL) != 0 ? plan.panelTotalPrice(total, b.getInt(at + FLOOR), (flags & INSULATED) != 0) : total;
+    }
+
+    /**
+     * Creates the RealEstate or Panel object a row stands for.
+     * @param row the row
+     * @return a new listing object, not connected to the row
+     */
+    RealEstate toObject(int row) {
+        if (isPanel(row)) {
+            return new Panel(city(row), price(row), sqm(row), numberOfRooms(row), genre(row), floor(row), isInsulated(row));
+        }
+        return new RealEstate(city(row), price(row), sqm(row), numberOfRooms(row), genre(row));
+    }
+
+    private byte flags(int row) {
+        return chunks[row >>> CHUNK_SHIFT].get(offset(row) + FLAGS);
+    }
+
+    private static int offset(int row) {
+        return (row & (CHUNK_ROWS - 1)) * ROW_SIZE;
+    }
+
+    private void allocate() {
+        ByteBuffer chunk;
+        if (file == null) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        } else {
+            StandardOpenOption[] options = chunkCount == 0
+                    ? new StandardOpenOption[] {StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE}
+                    : new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE};
+            // The mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(file, options)) {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkCount * CHUNK_BYTES, CHUNK_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not map " + file, e);
+            }
+        }
+        chunk.order(ByteOrder.nativeOrder());
+        if (chunkCount == chunks.length) chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        chunks[chunkCount++] = chunk;
+    }
+}
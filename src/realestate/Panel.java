@@ -12,32 +12,34 @@ public class Panel extends RealEstate implements PanelInterface {
     public Panel(String city, double price, int sqm, double numberOfRooms,
                  Genre genre, int floor, boolean isInsulated) {
         super(city, price, sqm, numberOfRooms, genre);
-        log.info("Creating Panel on floor " + floor + (isInsulated ? " (insulated)" : ""));
+        log.fine(() -> "Creating Panel on floor " + floor + (isInsulated ? " (insulated)" : ""));
         this.floor = floor;
         this.isInsulated = isInsulated;
     }
 
     @Override
-    public long getTotalPrice() {
-        log.info("Calculating Panel total price (floor=" + floor + ", insulated=" + isInsulated + ")");
-        double price = super.getTotalPrice();
+    protected long computeTotalPrice(PricingPlan plan) {
+        log.finer(() -> "Calculating Panel total price (floor=" + floor + ", insulated=" + isInsulated + ")");
+        return plan.panelTotalPrice(super.computeTotalPrice(plan), floor, isInsulated);
+    }
 
-        if (floor >= 0 && floor <= 2) price *= 1.05;
-        else if (floor == 10) price *= 0.95;
-        if (isInsulated) price *= 1.05;
+    public int getFloor() {
+        return floor;
+    }
 
-        return Math.round(price);
+    public boolean isInsulated() {
+        return isInsulated;
     }
 
     @Override
     public boolean hasSameAmount(RealEstate other) {
-        log.info("Comparing total price with another property");
+        log.finer("Comparing total price with another property");
         return this.getTotalPrice() == other.getTotalPrice();
     }
 
     @Override
     public long roomprice() {
-        log.info("Calculating average room price (no modifiers)");
+        log.finer("Calculating average room price (no modifiers)");
         return numberOfRooms == 0 ? 0 : Math.round((price * sqm) / numberOfRooms);
     }
 
@@ -0,0 +1,231 @@
+package realestate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Loads a listings file on several cores.
+ * <p>
+ * The file is cut into byte ranges that start right after a '\n', and every range is parsed
+ * by its own {@link ListingParser} on a fork-join worker into a private buffer, numbering
+ * lines from 1. When all ranges are done the buffers are merged in file order on the calling
+ * thread: line numbers of rejected lines are shifted by the number of lines in the preceding
+ * ranges, so the sink and error sink see exactly what a single-threaded load would report.
+ * Given a {@link ListingDeduplicator}, the workers also compute the fingerprints of their
+ * listings, and the merge drops the listings seen before, keeping the first in file order.
+ */
+public class ParallelListingLoader {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    /** Ranges smaller than this are not worth a task of their own. */
+    static final long MIN_RANGE_SIZE = 1 << 20;
+    /** Ranges per worker, so a slow range does not leave the other cores idle. */
+    private static final int RANGES_PER_WORKER = 4;
+
+    private final int parallelism;
+
+    private long recordCount;
+    private long lineCount;
+    private long duplicateCount;
+    private final long[] errorCounts = new long[ListingParser.ParseError.values().length];
+
+    /** Creates a loader using every available core. */
+    public ParallelListingLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader.
+     * @param parallelism number of worker threads, at least 1
+     */
+    public ParallelListingLoader(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Loads a whole file.
+     * @param file the listings file
+     * @param sink receives every parsed listing, in file order, on the calling thread
+     * @param errorSink receives every rejected line with its line number in the file
+     * @return the number of records accepted by this call
+     * @throws IOException if the file cannot be opened or read
+     */
+    public long load(Path file, Consumer<? super RealEstate> sink, ListingParser.ErrorSink errorSink) throws IOException {
+        return load(file, null, sink, errorSink);
+    }
+
+    /**
+     * Loads a whole file, dropping listings seen before.
+     * @param file the listings file
+     * @param deduplicator drops the listings seen before, in this file or earlier ones; null
+     *                     to keep every listing
+     * @param sink receives every parsed listing not dropped, in file order, on the calling thread
+     * @param errorSink receives every rejected line with its line number in the file
+     * @return the number of records accepted by this call, duplicates included
+     * @throws IOException if the file cannot be opened or read
+     */
+    public long load(Path file, ListingDeduplicator deduplicator, Consumer<? super RealEstate> sink,
+                     ListingParser.ErrorSink errorSink) throws IOException {
+        boolean fingerprint = deduplicator != null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = splitPoints(channel, parallelism * RANGES_PER_WORKER);
+            int ranges = bounds.length - 1;
+            log.info("Loading " + file + " in " + ranges + " range(s) on " + parallelism + " worker(s)");
+
+            List<Callable<RangeResult>> tasks = new ArrayList<>(ranges);
+            for (int i = 0; i < ranges; i++) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                tasks.add(() -> parseRange(channel, from, to, fingerprint));
+            }
+
+            List<RangeResult> results = runAll(tasks);
+
+            long accepted = 0;
+            long lineBase = 0;
+            for (RangeResult r : results) {
+                for (RangeError e : r.errors) {
+                    errorSink.onError(lineBase + e.lineNumber, e.error, e.line, e.detail);
+                }
+                if (!fingerprint) {
+                    r.records.forEach(sink);
+                } else {
+                    for (int i = 0; i < r.records.size(); i++) {
+                        if (deduplicator.firstSeen(r.fingerprints[i])) sink.accept(r.records.get(i));
+                        else duplicateCount++;
+                    }
+                }
+                accepted += r.parser.getRecordCount();
+                lineBase += r.parser.getLineCount();
+                for (ListingParser.ParseError error : ListingParser.ParseError.values()) {
+                    errorCounts[error.ordinal()] += r.parser.getErrorCount(error);
+                }
+            }
+            recordCount += accepted;
+            lineCount += lineBase;
+            return accepted;
+        }
+    }
+
+    /** @return number of records accepted so far */
+    public long getRecordCount() { return recordCount; }
+
+    /** @return number of lines read so far, blank ones included */
+    public long getLineCount() { return lineCount; }
+
+    /** @return number of records dropped as duplicates so far */
+    public long getDuplicateCount() { return duplicateCount; }
+
+    /**
+     * @param error the rejection reason
+     * @return number of lines rejected for that reason so far
+     */
+    public long getErrorCount(ListingParser.ParseError error) { return errorCounts[error.ordinal()]; }
+
+    /** @return number of lines rejected for any reason so far */
+    public long getErrorCount() {
+        long total = 0;
+        for (long c : errorCounts) total += c;
+        return total;
+    }
+
+    private List<RangeResult> runAll(List<Callable<RangeResult>> tasks) throws IOException {
+        if (tasks.size() == 1) {
+            try {
+                return List.of(tasks.get(0).call());
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<RangeResult> results = new ArrayList<>(tasks.size());
+            for (Future<RangeResult> f : pool.invokeAll(tasks)) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof UncheckedIOException io) throw io.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static RangeResult parseRange(FileChannel channel, long from, long to, boolean fingerprint) throws IOException {
+        List<RealEstate> records = new ArrayList<>();
+        List<RangeError> errors = new ArrayList<>();
+        ListingParser parser = new ListingParser(records::add,
+                (lineNumber, error, line, detail) -> errors.add(new RangeError(lineNumber, error, line, detail)));
+        parser.parse(channel, from, to, 1);
+        long[] fingerprints = null;
+        if (fingerprint) {
+            fingerprints = new long[records.size()];
+            for (int i = 0; i < fingerprints.length; i++) fingerprints[i] = ListingDeduplicator.fingerprint(records.get(i));
+        }
+        return new RangeResult(parser, records, fingerprints, errors);
+    }
+
+    /**
+     * Cuts the file into at most {@code ranges} ranges of similar size, each starting at
+     * offset 0 or right after a '\n'.
+     * @return the range boundaries, first 0 and last the file size
+     */
+    static long[] splitPoints(FileChannel channel, int ranges) throws IOException {
+        long size = channel.size();
+        int count = (int) Math.max(1, Math.min(ranges, size / MIN_RANGE_SIZE));
+        long[] points = new long[count + 1];
+        int n = 1;
+        ByteBuffer scan = ByteBuffer.allocate(8192);
+        for (int i = 1; i < count; i++) {
+            long target = Math.max(size * i / count, points[n - 1]);
+            long boundary = nextLineStart(channel, target, scan);
+            if (boundary > points[n - 1] && boundary < size) points[n++] = boundary;
+        }
+        points[n++] = size;
+        return n == points.length ? points : Arrays.copyOf(points, n);
+    }
+
+    /** @return the offset just after the first '\n' at or after {@code position}, or the file size */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer scan) throws IOException {
+        long pos = position;
+        while (true) {
+            scan.clear();
+            int n = channel.read(scan, pos);
+            if (n <= 0) return channel.size();
+            for (int i = 0; i < n; i++) {
+                if (scan.get(i) == '\n') return pos + i + 1;
+            }
+            pos += n;
+        }
+    }
+
+    private record RangeError(long lineNumber, ListingParser.ParseError error, String line, String detail) {}
+
+    private record RangeResult(ListingParser parser, List<RealEstate> records, long[] fingerprints,
+                               List<RangeError> errors) {}
+}
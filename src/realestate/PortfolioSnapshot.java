@@ -0,0 +1,490 @@
+package realestate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary, columnar snapshot of a portfolio, read through a memory mapping.
+ * <p>
+ * Layout (version 1, little-endian, every section 8-byte aligned):
+ * <pre>
+ *   header     magic "RESN", version u16, section count u16, row count i64,
+ *              per section: offset i64, length i64, CRC32C i32, reserved i32,
+ *              then the CRC32C of the header itself
+ *   CITIES     count i32, then per city: UTF-8 length i32 + bytes; the city column indexes it
+ *   GENRES     count i32, then per genre: name length i32 + ASCII bytes, in ordinal order
+ *   PRICE      f64 per row, price per sqm, stored bit for bit
+ *   ROOMS      f64 per row
+ *   SQM        i32 per row
+ *   FLOOR      i32 per row, 0 for non-Panels
+ *   CITY       i32 per row, index into CITIES
+ *   GENRE      u8 per row, index into GENRES
+ *   FLAGS      u8 per row, bit 0 Panel, bit 1 insulated
+ * </pre>
+ * Opening a snapshot reads and checks the header only. Each section is mapped and its
+ * checksum verified the first time it is used, so the cost of opening does not grow with the
+ * portfolio and pages are read by the OS as rows are touched. Genres are stored by name, so a
+ * snapshot stays readable when {@link Genre} constants are reordered. Prices are written as
+ * raw doubles, so every listing read back has the total price it was written with.
+ * Not thread-safe; {@link #verify()} maps every section, after which reading is.
+ * <p>
+ * Usage as a converter: {@code java realestate.PortfolioSnapshot <listings.txt> [snapshot]};
+ * the snapshot defaults to the text file name with the extension {@code .snap}.
+ */
+public final class PortfolioSnapshot {
+
+    /** Current format version. */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x4E534552; // "RESN" read as a little-endian int
+
+    private static final int CITIES = 0, GENRES = 1, PRICE = 2, ROOMS = 3, SQM = 4, FLOOR = 5, CITY = 6,
+            GENRE = 7, FLAGS = 8, SECTIONS = 9;
+    private static final String[] SECTION_NAMES = {"CITIES", "GENRES", "PRICE", "ROOMS", "SQM", "FLOOR", "CITY",
+            "GENRE", "FLAGS"};
+
+    private static final int SECTION_ENTRY_SIZE = 24;
+    private static final int HEADER_SIZE = align(16 + SECTIONS * SECTION_ENTRY_SIZE + 4);
+    private static final int FLAG_PANEL = 1, FLAG_INSULATED = 2;
+    /** Keeps the largest column, 8 bytes per row, within one mapping. */
+    static final int MAX_ROWS = Integer.MAX_VALUE / 8;
+
+    private final Path file;
+    private final int size;
+    private final long[] offsets = new long[SECTIONS];
+    private final long[] lengths = new long[SECTIONS];
+    private final int[] checksums = new int[SECTIONS];
+
+    // Sections, mapped and verified on first use
+    private String[] cities;
+    private Genre[] genres;
+    private DoubleBuffer price;
+    private DoubleBuffer numberOfRooms;
+    private IntBuffer sqm;
+    private IntBuffer floor;
+    private IntBuffer city;
+    private ByteBuffer genre;
+    private ByteBuffer flags;
+
+    private PortfolioSnapshot(Path file, ByteBuffer header) throws IOException {
+        this.file = file;
+        if (header.getInt(0) != MAGIC) throw new IOException(file + " is not a portfolio snapshot");
+        int version = header.getShort(4);
+        if (version != VERSION) throw new IOException(file + " has snapshot version " + version + ", expected " + VERSION);
+        if (header.getShort(6) != SECTIONS) throw new IOException(file + " has " + header.getShort(6) + " sections, expected " + SECTIONS);
+        int headerCrc = header.getInt(16 + SECTIONS * SECTION_ENTRY_SIZE);
+        if (headerCrc != crc(header, 0, 16 + SECTIONS * SECTION_ENTRY_SIZE)) throw new IOException(file + ": header checksum mismatch");
+
+        long rows = header.getLong(8);
+        if (rows < 0 || rows > MAX_ROWS) throw new IOException(file + ": invalid row count " + rows);
+        this.size = (int) rows;
+        long fileSize = Files.size(file);
+        for (int s = 0; s < SECTIONS; s++) {
+            int at = 16 + s * SECTION_ENTRY_SIZE;
+            offsets[s] = header.getLong(at);
+            lengths[s] = header.getLong(at + 8);
+            checksums[s] = header.getInt(at + 16);
+            if (offsets[s] < HEADER_SIZE || lengths[s] < 0 || lengths[s] > Integer.MAX_VALUE || offsets[s] + lengths[s] > fileSize) {
+                throw new IOException(file + ": section " + SECTION_NAMES[s] + " lies outside the file");
+            }
+        }
+    }
+
+    /**
+     * Opens a snapshot, reading and checking its header; the data is mapped on first use.
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot of this version or its header is damaged
+     */
+    public static PortfolioSnapshot open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // keep reading
+            }
+            if (header.hasRemaining()) throw new IOException(file + " is too short for a portfolio snapshot");
+            return new PortfolioSnapshot(file, header);
+        }
+    }
+
+    /**
+     * Writes listings to a snapshot, replacing the file only once it is complete.
+     * @param listings the listings, written in iteration order
+     * @param file the snapshot file
+     * @return the number of listings written
+     * @throws IOException if the file cannot be written
+     */
+    public static int write(Iterable<? extends RealEstate> listings, Path file) throws IOException {
+        PropertyTable table = PropertyTable.of(listings);
+        write(table, file);
+        return table.size();
+    }
+
+    /**
+     * Writes the rows of a table to a snapshot, replacing the file only once it is complete.
+     * @param table the rows, written in row order
+     * @param file the snapshot file
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the table has more than {@link #MAX_ROWS} rows
+     */
+    public static void write(PropertyTable table, Path file) throws IOException {
+        int n = table.size();
+        if (n > MAX_ROWS) throw new IllegalArgumentException("Too many rows for a snapshot: " + n);
+        CityDictionary dictionary = table.cities();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            SectionWriter out = new SectionWriter(ch, header);
+            ch.position(HEADER_SIZE);
+
+            out.begin(CITIES);
+            out.putInt(dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++) out.putString(dictionary.name(id));
+            out.end();
+
+            out.begin(GENRES);
+            Genre[] values = Genre.values();
+            out.putInt(values.length);
+            for (Genre g : values) out.putString(g.name());
+            out.end();
+
+            out.begin(PRICE);
+            for (int row = 0; row < n; row++) out.putDouble(table.price(row));
+            out.end();
+            out.begin(ROOMS);
+            for (int row = 0; row < n; row++) out.putDouble(table.numberOfRooms(row));
+            out.end();
+            out.begin(SQM);
+            for (int row = 0; row < n; row++) out.putInt(table.sqm(row));
+            out.end();
+            out.begin(FLOOR);
+            for (int row = 0; row < n; row++) out.putInt(table.isPanel(row) ? table.floor(row) : 0);
+            out.end();
+            out.begin(CITY);
+            for (int row = 0; row < n; row++) out.putInt(table.cityId(row));
+            out.end();
+            out.begin(GENRE);
+            for (int row = 0; row < n; row++) out.put((byte) table.genre(row).ordinal());
+            out.end();
+            out.begin(FLAGS);
+            for (int row = 0; row < n; row++) {
+                out.put((byte) ((table.isPanel(row) ? FLAG_PANEL : 0) | (table.isInsulated(row) ? FLAG_INSULATED : 0)));
+            }
+            out.end();
+
+            header.putInt(0, MAGIC);
+            header.putShort(4, (short) VERSION);
+            header.putShort(6, (short) SECTIONS);
+            header.putLong(8, n);
+            header.putInt(16 + SECTIONS * SECTION_ENTRY_SIZE, crc(header, 0, 16 + SECTIONS * SECTION_ENTRY_SIZE));
+            header.clear();
+            ch.position(0);
+            while (header.hasRemaining()) ch.write(header);
+            ch.force(false);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /** @return the snapshot file */
+    public Path file() { return file; }
+
+    /** @return the number of listings */
+    public int size() { return size; }
+
+    public double price(int row) { return prices().get(check(row)); }
+
+    public double numberOfRooms(int row) { return rooms().get(check(row)); }
+
+    public int sqm(int row) { return sqms().get(check(row)); }
+
+    public int floor(int row) { return floors().get(check(row)); }
+
+    public String city(int row) { return cityNames()[cityIds().get(check(row))]; }
+
+    public Genre genre(int row) { return genreTable()[genres().get(check(row))]; }
+
+    public boolean isPanel(int row) { return (flagBytes().get(check(row)) & FLAG_PANEL) != 0; }
+
+    public boolean isInsulated(int row) { return (flagBytes().get(check(row)) & FLAG_INSULATED) != 0; }
+
+    /**
+     * Creates the RealEstate or Panel object a row stands for.
+     * @param row the row number
+     * @return a new listing object
+     */
+    public RealEstate toObject(int row) {
+        if (isPanel(row)) {
+            return new Panel(city(row), price(row), sqm(row), numberOfRooms(row), genre(row), floor(row), isInsulated(row));
+        }
+        return new RealEstate(city(row), price(row), sqm(row), numberOfRooms(row), genre(row));
+    }
+
+    /**
+     * Creates every listing, in row order.
+     * @param sink receives the listings
+     */
+    public void forEach(Consumer<? super RealEstate> sink) {
+        for (int row = 0; row < size; row++) sink.accept(toObject(row));
+    }
+
+    /**
+     * Maps and verifies every section now instead of on first use.
+     * @throws IOException if a section cannot be mapped or its checksum does not match
+     */
+    public void verify() throws IOException {
+        try {
+            cityNames();
+            genreTable();
+            prices();
+            rooms();
+            sqms();
+            floors();
+            cityIds();
+            genres();
+            flagBytes();
+        } catch (SnapshotException e) {
+            throw e.getCause();
+        }
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        return row;
+    }
+
+    // --- sections, mapped on first use ---
+
+    private DoubleBuffer prices() {
+        DoubleBuffer b = price;
+        return b != null ? b : (price = section(PRICE, 8L * size).asDoubleBuffer());
+    }
+
+    private DoubleBuffer rooms() {
+        DoubleBuffer b = numberOfRooms;
+        return b != null ? b : (numberOfRooms = section(ROOMS, 8L * size).asDoubleBuffer());
+    }
+
+    private IntBuffer sqms() {
+        IntBuffer b = sqm;
+        return b != null ? b : (sqm = section(SQM, 4L * size).asIntBuffer());
+    }
+
+    private IntBuffer floors() {
+        IntBuffer b = floor;
+        return b != null ? b : (floor = section(FLOOR, 4L * size).asIntBuffer());
+    }
+
+    private IntBuffer cityIds() {
+        IntBuffer b = city;
+        if (b != null) return b;
+        IntBuffer ids = section(CITY, 4L * size).asIntBuffer();
+        int count = cityNames().length;
+        for (int row = 0; row < size; row++) {
+            int id = ids.get(row);
+            if (id < 0 || id >= count) throw new SnapshotException(new IOException(file + ": unknown city id " + id + " in row " + row));
+        }
+        return city = ids;
+    }
+
+    private ByteBuffer genres() {
+        ByteBuffer b = genre;
+        if (b != null) return b;
+        ByteBuffer ordinals = section(GENRE, size);
+        int count = genreTable().length;
+        for (int row = 0; row < size; row++) {
+            if ((ordinals.get(row) & 0xFF) >= count) throw new SnapshotException(new IOException(file + ": unknown genre in row " + row));
+        }
+        return genre = ordinals;
+    }
+
+    private ByteBuffer flagBytes() {
+        ByteBuffer b = flags;
+        return b != null ? b : (flags = section(FLAGS, size));
+    }
+
+    private String[] cityNames() {
+        String[] names = cities;
+        if (names != null) return names;
+        ByteBuffer b = section(CITIES, -1);
+        names = new String[b.getInt()];
+        for (int i = 0; i < names.length; i++) names[i] = getString(b).intern();
+        return cities = names;
+    }
+
+    private Genre[] genreTable() {
+        Genre[] table = genres;
+        if (table != null) return table;
+        ByteBuffer b = section(GENRES, -1);
+        table = new Genre[b.getInt()];
+        for (int i = 0; i < table.length; i++) {
+            String name = getString(b);
+            try {
+                table[i] = Genre.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                throw new SnapshotException(new IOException(file + ": unknown genre " + name));
+            }
+        }
+        return genres = table;
+    }
+
+    /**
+     * Maps a section and verifies its checksum.
+     * @param expectedLength the length the row count implies, or -1 for variable-length sections
+     */
+    private ByteBuffer section(int s, long expectedLength) {
+        if (expectedLength >= 0 && lengths[s] != expectedLength) {
+            throw new SnapshotException(new IOException(file + ": section " + SECTION_NAMES[s] + " is " + lengths[s]
+                    + " bytes, expected " + expectedLength));
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, offsets[s], lengths[s]);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (crc(mapped, 0, (int) lengths[s]) != checksums[s]) {
+                throw new IOException(file + ": checksum mismatch in section " + SECTION_NAMES[s]);
+            }
+            return mapped;
+        } catch (IOException e) {
+            throw new SnapshotException(e);
+        }
+    }
+
+    private static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer b, int from, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(b.duplicate().position(from).limit(from + length));
+        return (int) crc.getValue();
+    }
+
+    private static int align(long position) {
+        return (int) ((position + 7) & ~7L);
+    }
+
+    /** A damaged section found on first use; thrown from accessors, which cannot throw IOException. */
+    public static final class SnapshotException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SnapshotException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /** Writes sections one after another, buffering and checksumming them. */
+    private static final class SectionWriter {
+        private final FileChannel ch;
+        private final ByteBuffer header;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private int section;
+        private long start;
+
+        SectionWriter(FileChannel ch, ByteBuffer header) {
+            this.ch = ch;
+            this.header = header;
+        }
+
+        void begin(int s) throws IOException {
+            section = s;
+            start = align(ch.position());
+            ch.position(start);
+            crc.reset();
+        }
+
+        void putInt(int v) throws IOException { room(4).putInt(v); }
+
+        void putDouble(double v) throws IOException { room(8).putDouble(v); }
+
+        void put(byte v) throws IOException { room(1).put(v); }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (byte b : bytes) put(b);
+        }
+
+        void end() throws IOException {
+            drain();
+            int at = 16 + section * SECTION_ENTRY_SIZE;
+            header.putLong(at, start);
+            header.putLong(at + 8, ch.position() - start);
+            header.putInt(at + 16, (int) crc.getValue());
+            // Pad to the next section's alignment so the file has no holes
+            long end = ch.position();
+            long padded = align(end);
+            if (padded > end) {
+                ByteBuffer zeros = ByteBuffer.allocate((int) (padded - end));
+                while (zeros.hasRemaining()) ch.write(zeros);
+            }
+        }
+
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) drain();
+            return buf;
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+
+    /**
+     * Converts a listings text file to a snapshot.
+     * @param args the text file, then optionally the snapshot file
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java realestate.PortfolioSnapshot <listings.txt> [snapshot]");
+            System.exit(2);
+        }
+        Path text = Paths.get(args[0]);
+        Path snapshot = Paths.get(args.length > 1 ? args[1] : snapshotFileFor(args[0]));
+        PropertyStore store = new PropertyStore();
+        ListingParser parser = new ListingParser(store::add, (line, error, content, detail) -> { });
+        parser.parse(text);
+        int written = write(store, snapshot);
+        System.out.println("Wrote " + written + " listings to " + snapshot + " (" + parser.getErrorCount() + " lines rejected)");
+    }
+
+    /**
+     * @param textFile a listings file name
+     * @return the default snapshot file name for it, the extension replaced with {@code .snap}
+     */
+    public static String snapshotFileFor(String textFile) {
+        int dot = textFile.lastIndexOf('.');
+        int slash = Math.max(textFile.lastIndexOf('/'), textFile.lastIndexOf('\\'));
+        return (dot > slash ? textFile.substring(0, dot) : textFile) + ".snap";
+    }
+}
@@ -0,0 +1,356 @@
+package realestate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Sorted index of (total price, listing id) pairs kept in primitive arrays.
+ * <p>
+ * Entries are ordered by price, then by id, so equal prices are all kept and come out in
+ * insertion order. The index is a list of sorted blocks of at most {@link #BLOCK_SIZE}
+ * entries: finding an entry is a binary search over the blocks and then inside one block,
+ * and an insert or removal only shifts the entries of that block.
+ * <p>
+ * Not thread-safe.
+ */
+class PriceIndex {
+
+    static final int BLOCK_SIZE = 512;
+
+    private static final class Block {
+        final long[] prices = new long[BLOCK_SIZE * 2];
+        final int[] ids = new int[BLOCK_SIZE * 2];
+        int size;
+
+        int compareLast(long price, int id) {
+            long lastPrice = prices[size - 1];
+            if (lastPrice != price) return Long.compare(lastPrice, price);
+            return Integer.compare(ids[size - 1], id);
+        }
+
+        /** @return the position of (price, id), or -(insertion point) - 1 */
+        int search(long price, int id) {
+            int lo = 0;
+            int hi = size - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = prices[mid] != price ? Long.compare(prices[mid], price) : Integer.compare(ids[mid], id);
+                if (c < 0) lo = mid + 1;
+                else if (c > 0) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+
+        /** @return the first position whose price is at least {@code price} */
+        int lowerBound(long price) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (prices[mid] < price) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int size;
+
+    /**
+     * Adds an entry.
+     * @param price the total price
+     * @param id the listing id
+     */
+    void add(long price, int id) {
+        if (blocks.isEmpty()) blocks.add(new Block());
+        int b = blockFor(price, id);
+        Block block = blocks.get(b);
+        int pos = block.search(price, id);
+        if (pos >= 0) throw new IllegalStateException("Listing " + id + " is already indexed at price " + price);
+        pos = -pos - 1;
+        System.arraycopy(block.prices, pos, block.prices, pos + 1, block.size - pos);
+        System.arraycopy(block.ids, pos, block.ids, pos + 1, block.size - pos);
+        block.prices[pos] = price;
+        block.ids[pos] = id;
+        block.size++;
+        size++;
+        if (block.size == block.prices.length) split(b);
+    }
+
+    /**
+     * Removes an entry.
+     * @param price the total price the entry was added with
+     * @param id the listing id
+     * @return whether the entry was present
+     */
+    boolean remove(long price, int id) {
+        if (blocks.isEmpty()) return false;
+        int b = blockFor(price, id);
+        Block block = blocks.get(b);
+        int pos = block.search(price, id);
+        if (pos < 0) return false;
+        System.arraycopy(block.prices, pos + 1, block.prices, pos, block.size - pos - 1);
+        System.arraycopy(block.ids, pos + 1, block.ids, pos, block.size - pos - 1);
+        block.size--;
+        size--;
+        if (block.size == 0 && blocks.size() > 1) blocks.remove(b);
+        return true;
+    }
+
+    /** @return the number of entries */
+    int size() {
+        return size;
+    }
+
+    /** @return the id of the cheapest entry; the earliest added one among equal prices */
+    int firstId() {
+        if (size == 0) throw new NoSuchElementException();
+        return blocks.get(0).ids[0];
+    }
+
+    /** @return the id of the most expensive entry; the latest added one among equal prices */
+    int lastId() {
+        if (size == 0) throw new NoSuchElementException();
+        Block last = blocks.get(blocks.size() - 1);
+        return last.ids[last.size - 1];
+    }
+
+    /** @return the highest price in the index */
+    long lastPrice() {
+        if (size == 0) throw new NoSuchElementException();
+        Block last = blocks.get(blocks.size() - 1);
+        return last.prices[last.size - 1];
+    }
+
+    /**
+     * @param min the lowest price, inclusive
+     * @return the id of the first entry whose price is at least {@code min}, or -1 if there is none
+     */
+    int firstIdAtLeast(long min) {
+        for (int b = firstBlockWithPriceAtLeast(min); b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            int i = block.lowerBound(min);
+            if (i < block.size) return block.ids[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the ids whose price lies in {@code [min, max]}, in index order.
+     * @param min the lowest price, inclusive
+     * @param max the highest price, inclusive
+     * @return the matching ids
+     */
+    int[] idsInRange(long min, long max) {
+        int[] out = new int[16];
+        int n = 0;
+        for (int b = firstBlockWithPriceAtLeast(min); b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            for (int i = block.lowerBound(min); i < block.size; i++) {
+                if (block.prices[i] > max) return Arrays.copyOf(out, n);
+                if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                out[n++] = block.ids[i];
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Passes the ids whose price lies in {@code [min, max]} to an action, in index order,
+     * without collecting them. The index must not change meanwhile.
+     * @param min the lowest price, inclusive
+     * @param max the highest price, inclusive
+     * @param action receives the matching ids
+     */
+    void forEachInRange(long min, long max, IntConsumer action) {
+        for (int b = firstBlockWithPriceAtLeast(min); b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            for (int i = block.lowerBound(min); i < block.size; i++) {
+                if (block.prices[i] > max) return;
+                action.accept(block.ids[i]);
+            }
+        }
+    }
+
+    /**
+     * Counts the entries whose price lies in {@code [min, max]} without collecting them; whole
+     * blocks inside the range are counted by their size.
+     * @param min the lowest price, inclusive
+     * @param max the highest price, inclusive
+     * @return the number of matching entries
+     */
+    int countInRange(long min, long max) {
+        if (min > max) return 0;
+        int n = 0;
+        for (int b = firstBlockWithPriceAtLeast(min); b < blocks.size(); b++) {
+            Block block = blocks.get(b);
+            if (block.size == 0) continue;
+            int from = block.lowerBound(min);
+            if (block.prices[block.size - 1] <= max) {
+                n += block.size - from;
+                continue;
+            }
+            return n + block.lowerBound(max + 1) - from;
+        }
+        return n;
+    }
+
+    /** @return all ids in index order */
+    int[] ids() {
+        int[] out = new int[size];
+        int n = 0;
+        for (Block block : blocks) {
+            System.arraycopy(block.ids, 0, out, n, block.size);
+            n += block.size;
+        }
+        return out;
+    }
+
+    /**
+     * Replaces the whole content, sorting the entries in parallel; cheaper than adding
+     * them one by one when most of the index changes.
+     * @param prices the total prices
+     * @param ids the listing ids, distinct, same length as {@code prices}
+     */
+    void rebuild(long[] prices, int[] ids) {
+        long[] p = prices.clone();
+        int[] id = ids.clone();
+        ForkJoinPool.commonPool().invoke(new PairSort(p, id, new long[p.length], new int[id.length], 0, p.length));
+
+        clear();
+        for (int from = 0; from < p.length; from += BLOCK_SIZE) {
+            Block block = new Block();
+            block.size = Math.min(BLOCK_SIZE, p.length - from);
+            System.arraycopy(p, from, block.prices, 0, block.size);
+            System.arraycopy(id, from, block.ids, 0, block.size);
+            blocks.add(block);
+        }
+        size = p.length;
+    }
+
+    /** Removes every entry. */
+    void clear() {
+        blocks.clear();
+        size = 0;
+    }
+
+    /** @return the index of the block (price, id) belongs in */
+    private int blockFor(long price, int id) {
+        int lo = 0;
+        int hi = blocks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Block block = blocks.get(mid);
+            if (block.size > 0 && block.compareLast(price, id) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private int firstBlockWithPriceAtLeast(long price) {
+        int lo = 0;
+        int hi = blocks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            Block block = blocks.get(mid);
+            if (block.size > 0 && block.prices[block.size - 1] < price) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void split(int b) {
+        Block full = blocks.get(b);
+        Block upper = new Block();
+        int half = full.size / 2;
+        upper.size = full.size - half;
+        System.arraycopy(full.prices, half, upper.prices, 0, upper.size);
+        System.arraycopy(full.ids, half, upper.ids, 0, upper.size);
+        full.size = half;
+        blocks.add(b + 1, upper);
+    }
+
+    /** Parallel merge sort of (price, id) pairs held in two arrays. */
+    private static final class PairSort extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_THRESHOLD = 8192;
+
+        private final long[] prices;
+        private final int[] ids;
+        private final long[] tmpPrices;
+        private final int[] tmpIds;
+        private final int from;
+        private final int to;
+
+        PairSort(long[] prices, int[] ids, long[] tmpPrices, int[] tmpIds, int from, int to) {
+            this.prices = prices;
+            this.ids = ids;
+            this.tmpPrices = tmpPrices;
+            this.tmpIds = tmpIds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                sortSequential(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new PairSort(prices, ids, tmpPrices, tmpIds, from, mid),
+                    new PairSort(prices, ids, tmpPrices, tmpIds, mid, to));
+            merge(from, mid, to);
+        }
+
+        private void sortSequential(int lo, int hi) {
+            if (hi - lo <= 32) {
+                for (int i = lo + 1; i < hi; i++) {
+                    long p = prices[i];
+                    int id = ids[i];
+                    int j = i - 1;
+                    while (j >= lo && less(p, id, prices[j], ids[j])) {
+                        prices[j + 1] = prices[j];
+                        ids[j + 1] = ids[j];
+                        j--;
+                    }
+                    prices[j + 1] = p;
+                    ids[j + 1] = id;
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            sortSequential(lo, mid);
+            sortSequential(mid, hi);
+            merge(lo, mid, hi);
+        }
+
+        private void merge(int lo, int mid, int hi) {
+            if (!less(prices[mid], ids[mid], prices[mid - 1], ids[mid - 1])) return; // already in order
+            System.arraycopy(prices, lo, tmpPrices, lo, hi - lo);
+            System.arraycopy(ids, lo, tmpIds, lo, hi - lo);
+            int i = lo;
+            int j = mid;
+            for (int k = lo; k < hi; k++) {
+                if (j >= hi || (i < mid && !less(tmpPrices[j], tmpIds[j], tmpPrices[i], tmpIds[i]))) {
+                    prices[k] = tmpPrices[i];
+                    ids[k] = tmpIds[i++];
+                } else {
+                    prices[k] = tmpPrices[j];
+                    ids[k] = tmpIds[j++];
+                }
+            }
+        }
+
+        private static boolean less(long p1, int id1, long p2, int id2) {
+            return p1 < p2 || (p1 == p2 && id1 < id2);
+        }
+    }
+}
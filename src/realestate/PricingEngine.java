@@ -0,0 +1,53 @@
+package realestate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Holds the {@link PricingPlan} every listing is priced with.
+ * <p>
+ * The plan is a single volatile reference: pricing reads it without locks, and swapping in
+ * new rules is one write. Listings cache their total price together with the version of
+ * the plan it was computed with, so after a swap each listing re-prices itself on next use;
+ * {@link #reload(Path, PropertyStore)} re-prices a whole store up front, in parallel.
+ */
+public final class PricingEngine {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    private static volatile PricingPlan plan = PricingPlan.defaults();
+
+    private PricingEngine() {
+    }
+
+    /** @return the plan currently in force */
+    public static PricingPlan plan() {
+        return plan;
+    }
+
+    /**
+     * Puts a plan in force. Listings priced with an earlier plan re-price on next use.
+     * @param newPlan the plan
+     */
+    public static void install(PricingPlan newPlan) {
+        plan = newPlan;
+        log.info("Pricing plan v" + newPlan.version() + " installed");
+    }
+
+    /**
+     * Loads a rules file, puts it in force and re-prices a store in bulk.
+     * @param rules the rules file
+     * @param store the store to re-price, may be null
+     * @return the number of listings whose total price changed
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a rule is malformed; the current plan stays in force
+     */
+    public static int reload(Path rules, PropertyStore store) throws IOException {
+        install(PricingPlan.load(rules));
+        if (store == null) return 0;
+        int changed = store.reprice();
+        log.info("Re-priced " + store.size() + " listings, " + changed + " changed");
+        return changed;
+    }
+}
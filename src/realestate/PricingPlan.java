@@ -0,0 +1,202 @@
+package realestate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable, compiled set of pricing rules.
+ * <p>
+ * Rules are read from a properties file (UTF-8):
+ * <pre>
+ *   city.Budapest=1.30          # multiplier on price * sqm, city matched case-insensitively
+ *   panel.floor.0-2=1.05        # Panel floor multiplier, one floor or an inclusive range
+ *   panel.floor.10=0.95
+ *   panel.insulated=1.05        # Panel multiplier when the building is insulated
+ * </pre>
+ * Cities and floors without a rule use 1.0. Compiling turns the rules into flat lookup
+ * arrays: city multipliers indexed by {@link CityDictionary#shared()} id and floor
+ * multipliers indexed by floor number, so pricing a listing is two array reads.
+ * Every plan gets a new {@link #version()}, which cached prices are checked against.
+ */
+public final class PricingPlan {
+
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+    private final int version;
+    private final Map<String, Double> cityRules;   // lower-case city name -> multiplier
+    private final double[] cityMultipliers;        // by shared city id, compiled
+    private final double[] floorMultipliers;       // by floor, 0..highest floor with a rule
+    private final double insulatedMultiplier;
+
+    private PricingPlan(Map<String, Double> cityRules, double[] floorMultipliers, double insulatedMultiplier) {
+        this.version = VERSIONS.incrementAndGet();
+        this.cityRules = Map.copyOf(cityRules);
+        this.floorMultipliers = floorMultipliers;
+        this.insulatedMultiplier = insulatedMultiplier;
+
+        CityDictionary cities = CityDictionary.shared();
+        double[] compiled = new double[cities.size()];
+        for (int id = 0; id < compiled.length; id++) {
+            compiled[id] = cityMultiplier(cities.name(id));
+        }
+        this.cityMultipliers = compiled;
+    }
+
+    /** @return the rules the application shipped with, used when there is no rules file */
+    public static PricingPlan defaults() {
+        Map<String, Double> cities = new HashMap<>();
+        cities.put("budapest", 1.30);
+        cities.put("debrecen", 1.20);
+        cities.put("nyíregyháza", 1.15);
+        double[] floors = new double[11];
+        Arrays.fill(floors, 1.0);
+        floors[0] = floors[1] = floors[2] = 1.05;
+        floors[10] = 0.95;
+        return new PricingPlan(cities, floors, 1.05);
+    }
+
+    /**
+     * Reads and compiles a rules file.
+     * @param file the rules file
+     * @return the compiled plan
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a rule is malformed
+     */
+    public static PricingPlan load(Path file) throws IOException {
+        Properties rules = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            rules.load(reader);
+        }
+        return compile(rules);
+    }
+
+    /**
+     * Compiles rules given as properties; see the class comment for the keys.
+     * @param rules the rules
+     * @return the compiled plan
+     * @throws IllegalArgumentException if a rule is malformed
+     */
+    public static PricingPlan compile(Properties rules) {
+        Map<String, Double> cities = new HashMap<>();
+        Map<Integer, Double> floors = new HashMap<>();
+        double insulated = 1.0;
+        int highestFloor = -1;
+
+        for (String key : rules.stringPropertyNames()) {
+            double multiplier = parseMultiplier(key, rules.getProperty(key));
+            if (key.startsWith("city.")) {
+                cities.put(key.substring("city.".length()).toLowerCase(Locale.ROOT), multiplier);
+            } else if (key.startsWith("panel.floor.")) {
+                String range = key.substring("panel.floor.".length());
+                int dash = range.indexOf('-');
+                int from = parseFloor(key, dash < 0 ? range : range.substring(0, dash));
+                int to = dash < 0 ? from : parseFloor(key, range.substring(dash + 1));
+                if (to < from) throw new IllegalArgumentException("Empty floor range in rule " + key);
+                for (int f = from; f <= to; f++) floors.put(f, multiplier);
+                highestFloor = Math.max(highestFloor, to);
+            } else if (key.equals("panel.insulated")) {
+                insulated = multiplier;
+            } else {
+                throw new IllegalArgumentException("Unknown pricing rule: " + key);
+            }
+        }
+
+        double[] floorTable = new double[highestFloor + 1];
+        Arrays.fill(floorTable, 1.0);
+        floors.forEach((floor, multiplier) -> floorTable[floor] = multiplier);
+        return new PricingPlan(cities, floorTable, insulated);
+    }
+
+    /** @return the version of this plan; a later plan has a higher version */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * @param city a city name, matched case-insensitively
+     * @return the multiplier of the city, 1.0 if it has no rule
+     */
+    public double cityMultiplier(String city) {
+        if (city == null) return 1.0;
+        return cityRules.getOrDefault(city.toLowerCase(Locale.ROOT), 1.0);
+    }
+
+    /**
+     * @param cityId a {@link CityDictionary#shared()} id, or -1 for no city
+     * @return the multiplier of the city, 1.0 if it has no rule
+     */
+    public double cityMultiplier(int cityId) {
+        if (cityId < 0) return 1.0;
+        // Cities first seen after compilation are resolved by name
+        return cityId < cityMultipliers.length ? cityMultipliers[cityId] : cityMultiplier(CityDictionary.shared().name(cityId));
+    }
+
+    /**
+     * @param floor a floor number
+     * @return the Panel multiplier of the floor, 1.0 if it has no rule
+     */
+    public double floorMultiplier(int floor) {
+        return floor >= 0 && floor < floorMultipliers.length ? floorMultipliers[floor] : 1.0;
+    }
+
+    /** @return the Panel multiplier for insulated buildings */
+    public double insulatedMultiplier() {
+        return insulatedMultiplier;
+    }
+
+    /**
+     * Prices a plain RealEstate.
+     * @param price price per sqm
+     * @param sqm size in square meters
+     * @param cityMultiplier the multiplier of the city
+     * @return the total price rounded to the nearest whole number
+     */
+    public long totalPrice(double price, int sqm, double cityMultiplier) {
+        return Math.round(price * sqm * cityMultiplier);
+    }
+
+    /**
+     * Applies the Panel rules to the total price of the flat as a plain RealEstate.
+     * @param total the RealEstate total price
+     * @param floor the floor the flat is on
+     * @param isInsulated whether the building is insulated
+     * @return the Panel total price rounded to the nearest whole number
+     */
+    public long panelTotalPrice(long total, int floor, boolean isInsulated) {
+        double price = total;
+        price *= floorMultiplier(floor);
+        if (isInsulated) price *= insulatedMultiplier;
+        return Math.round(price);
+    }
+
+    private static double parseMultiplier(String key, String value) {
+        try {
+            double multiplier = Double.parseDouble(value.trim());
+            if (!(multiplier > 0) || Double.isInfinite(multiplier)) {
+                throw new IllegalArgumentException("Multiplier must be positive in rule " + key + ": " + value);
+            }
+            return multiplier;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid multiplier in rule " + key + ": " + value, e);
+        }
+    }
+
+    private static int parseFloor(String key, String value) {
+        try {
+            int floor = Integer.parseInt(value.trim());
+            if (floor < 0) throw new IllegalArgumentException("Negative floor in rule " + key);
+            return floor;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid floor in rule " + key, e);
+        }
+    }
+}
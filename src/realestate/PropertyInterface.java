@@ -5,4 +5,9 @@ public interface PropertyInterface {
     long getTotalPrice();
     double averageSqmPerRoom();
     String toString();
+    String getCity();
+    double getPrice();
+    int getSqm();
+    double getNumberOfRooms();
+    Genre getGenre();
 }
@@ -0,0 +1,746 @@
+package realestate;
+
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory store of listings.
+ * <p>
+ * Every listing added gets a stable id (its insertion number) and is kept, even when another
+ * listing has the same total price. The total price is computed once, on insert, and kept in
+ * a {@link PriceIndex}; listings are also indexed by city (case-insensitively) and by
+ * {@link Genre}. Iteration is cheapest first, listings with equal prices in insertion order.
+ * <p>
+ * A listing in the store must be discounted through {@link #discount(int, int)} or
+ * {@link #discountAll}, which keep its indexed price current. {@link Listener}s are told about every change.
+ * <p>
+ * A store created with {@link #offHeap()} does not keep the listing objects: their fields
+ * are copied into fixed-width rows outside the heap ({@link OffHeapListings}), so a large
+ * portfolio leaves the garbage collector nothing to trace but the primitive arrays of the
+ * indexes. {@link #get(int)}, the iterator and listeners then see new copies of the listings,
+ * while a {@link #cursor()} reads the rows in place. Queries and the report read listings
+ * through cursors and run the same way on both kinds of store.
+ * <p>
+ * Not thread-safe.
+ */
+public class PropertyStore extends AbstractCollection<RealEstate> {
+
+    /**
+     * Follows the changes of a store. A change to a listing (a discount or a new total price
+     * after re-pricing) is reported as its removal with the old values followed by its
+     * addition with the new ones; while {@code removed} runs the listing still has its old
+     * price per sqm.
+     */
+    public interface Listener {
+        /**
+         * A listing was added.
+         * @param id the id of the listing
+         * @param property the listing
+         * @param totalPrice the total price it is indexed with
+         */
+        void added(int id, RealEstate property, long totalPrice);
+
+        /**
+         * A listing was removed.
+         * @param id the id of the listing
+         * @param property the listing
+         * @param totalPrice the total price it was indexed with
+         */
+        void removed(int id, RealEstate property, long totalPrice);
+
+        /** Every listing was removed. */
+        void cleared();
+    }
+
+    /**
+     * Bulk discounts, queries, analytics and the market cube work through this many listings
+     * or more in parallel, and fewer on the calling thread, where forking would cost more
+     * than it saves.
+     */
+    static final int PARALLEL_THRESHOLD = 50_000;
+
+    // The listings by id, or null when they are kept in rows
+    private RealEstate[] listings;
+    private final OffHeapListings rows;
+    private long[] totals = new long[16];
+    private int nextId;
+
+    private final PriceIndex priceIndex = new PriceIndex();
+    private final Map<String, IdList> byCity = new HashMap<>();
+    private final Map<Genre, IdList> byGenre = new EnumMap<>(Genre.class);
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /** Creates an empty store that keeps the listing objects. */
+    public PropertyStore() {
+        this(null);
+    }
+
+    private PropertyStore(OffHeapListings rows) {
+        this.rows = rows;
+        this.listings = rows == null ? new RealEstate[16] : null;
+    }
+
+    /**
+     * Creates an empty store that keeps the fields of its listings in direct buffers instead
+     * of keeping the listing objects.
+     * @return the store
+     */
+    public static PropertyStore offHeap() {
+        return new PropertyStore(new OffHeapListings(null));
+    }
+
+    /**
+     * Creates an empty store that keeps the fields of its listings in a memory-mapped file,
+     * for portfolios larger than memory.
+     * @param file the file, created or overwritten; it is not deleted afterwards
+     * @return the store
+     */
+    public static PropertyStore offHeap(Path file) {
+        return new PropertyStore(new OffHeapListings(file));
+    }
+
+    /** @return whether the listings are kept off the heap */
+    public boolean isOffHeap() {
+        return rows != null;
+    }
+
+    /**
+     * Registers a listener for the changes made from now on.
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /** @param listener a registered listener, which is told about no more changes */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds a listing.
+     * @param property the listing
+     * @return always true; the store keeps duplicates
+     */
+    @Override
+    public boolean add(RealEstate property) {
+        insert(property);
+        return true;
+    }
+
+    /**
+     * Adds a listing and returns its id.
+     * @param property the listing
+     * @return the id of the listing in this store
+     */
+    public int insert(RealEstate property) {
+        int id = nextId++;
+        if (id == totals.length) {
+            if (rows == null) listings = Arrays.copyOf(listings, id * 2);
+            totals = Arrays.copyOf(totals, id * 2);
+        }
+        long total = property.getTotalPrice();
+        if (rows == null) listings[id] = property;
+        else rows.set(id, property);
+        totals[id] = total;
+        priceIndex.add(total, id);
+        byCity.computeIfAbsent(cityKey(property.getCity()), k -> new IdList()).add(id);
+        byGenre.computeIfAbsent(property.getGenre(), k -> new IdList()).add(id);
+        for (Listener l : listeners) l.added(id, property, total);
+        return id;
+    }
+
+    /**
+     * Removes a listing.
+     * @param id the id returned by {@link #insert}
+     * @return the removed listing, or null if there is none with that id
+     */
+    public RealEstate removeById(int id) {
+        RealEstate property = get(id);
+        if (property == null) return null;
+        priceIndex.remove(totals[id], id);
+        byCity.get(cityKey(property.getCity())).remove(id);
+        byGenre.get(property.getGenre()).remove(id);
+        if (rows == null) listings[id] = null;
+        else rows.remove(id);
+        for (Listener l : listeners) l.removed(id, property, totals[id]);
+        return property;
+    }
+
+    /**
+     * Removes a listing, found through the smaller of the lists of its city and its genre
+     * rather than by a scan of the whole store. An {@link #offHeap()} store keeps copies of
+     * the fields only, so there any listing with the same fields is removed.
+     * @param o the listing
+     * @return whether a listing was removed; of several, the earliest added one
+     */
+    @Override
+    public boolean remove(Object o) {
+        int id = find(o);
+        if (id < 0) return false;
+        removeById(id);
+        return true;
+    }
+
+    /**
+     * @param o a listing, matched as by {@link #remove(Object)}
+     * @return whether the store has it
+     */
+    @Override
+    public boolean contains(Object o) {
+        return find(o) >= 0;
+    }
+
+    private int find(Object o) {
+        if (!(o instanceof RealEstate property) || property.getCity() == null) return -1;
+        IdList inCity = byCity.get(cityKey(property.getCity()));
+        IdList ofGenre = byGenre.get(property.getGenre());
+        if (inCity == null || ofGenre == null) return -1;
+        IdList ids = inCity.size <= ofGenre.size ? inCity : ofGenre;
+        return ids.find(id -> holds(id, property));
+    }
+
+    private boolean holds(int id, RealEstate property) {
+        if (rows == null) return listings[id] == property;
+        if (!(property instanceof Panel flat)) {
+            if (rows.isPanel(id)) return false;
+        } else if (!rows.isPanel(id) || rows.floor(id) != flat.getFloor() || rows.isInsulated(id) != flat.isInsulated()) {
+            return false;
+        }
+        return property.getCity().equals(rows.city(id))
+                && Double.compare(rows.price(id), property.getPrice()) == 0
+                && rows.sqm(id) == property.getSqm()
+                && Double.compare(rows.numberOfRooms(id), property.getNumberOfRooms()) == 0
+                && rows.genre(id) == property.getGenre();
+    }
+
+    /**
+     * Applies a discount to a listing and moves it to its new place in the price order.
+     * @param id a listing id
+     * @param percentage the percentage discount to apply
+     * @return the new total price
+     */
+    public long discount(int id, int percentage) {
+        if (!containsId(id)) throw new NoSuchElementException("No listing with id " + id);
+        long old = totals[id];
+        if (!listeners.isEmpty()) {
+            RealEstate property = get(id);
+            for (Listener l : listeners) l.removed(id, property, old);
+        }
+        long total;
+        if (rows == null) {
+            listings[id].makeDiscount(percentage);
+            total = listings[id].getTotalPrice();
+        } else {
+            rows.makeDiscount(id, percentage);
+            total = rows.totalPrice(id, PricingEngine.plan());
+        }
+        if (total != old) {
+            priceIndex.remove(old, id);
+            totals[id] = total;
+            priceIndex.add(total, id);
+        }
+        if (!listeners.isEmpty()) {
+            RealEstate property = get(id);
+            for (Listener l : listeners) l.added(id, property, total);
+        }
+        return total;
+    }
+
+    /**
+     * Applies a discount to every selected listing in one pass, with the same results as
+     * {@link #discount(int, int)} on each of them; see {@link BulkDiscount}.
+     * @param selection the listings to discount
+     * @param percentage the percentage discount to apply
+     * @return the number of listings discounted
+     */
+    public int discountAll(BulkDiscount.Selection selection, int percentage) {
+        // Candidates in id order, which is the order the listings were allocated in
+        int[] candidates = selection.city() != null ? idsInCity(selection.city())
+                : selection.genre() != null ? idsOfGenre(selection.genre()) : null;
+        int n = 0;
+        Cursor cursor = cursor();
+        if (candidates == null) {
+            candidates = new int[size()];
+            for (int id = 0; id < nextId; id++) {
+                if (containsId(id) && matches(selection, cursor.moveTo(id))) candidates[n++] = id;
+            }
+        } else {
+            // The city, if any, already matches
+            BulkDiscount.Selection rest = new BulkDiscount.Selection(null, selection.genre(), selection.maxFloor());
+            for (int id : candidates) {
+                if (matches(rest, cursor.moveTo(id))) candidates[n++] = id;
+            }
+        }
+        if (n == 0) return 0;
+        int[] ids = Arrays.copyOf(candidates, n);
+
+        if (!listeners.isEmpty()) {
+            for (int id : ids) {
+                RealEstate property = get(id);
+                for (Listener l : listeners) l.removed(id, property, totals[id]);
+            }
+        }
+        long[] fresh;
+        if (rows == null) {
+            fresh = BulkDiscount.discount(listings, ids, percentage);
+        } else {
+            rows.discount(ids, percentage);
+            fresh = new long[n];
+            PricingPlan plan = PricingEngine.plan();
+            for (int i = 0; i < n; i++) fresh[i] = rows.totalPrice(ids[i], plan);
+        }
+        updatePrices(ids, fresh);
+        if (!listeners.isEmpty()) {
+            for (int id : ids) {
+                RealEstate property = get(id);
+                for (Listener l : listeners) l.added(id, property, totals[id]);
+            }
+        }
+        return n;
+    }
+
+    private static boolean matches(BulkDiscount.Selection selection, Cursor listing) {
+        return selection.matches(listing.getCity(), listing.getGenre(), listing.isPanel(), listing.getFloor());
+    }
+
+    /**
+     * Returns a listing; of an {@link #offHeap()} store a new copy, which changing does not
+     * change the store.
+     * @param id a listing id
+     * @return the listing with that id, or null if there is none
+     */
+    public RealEstate get(int id) {
+        if (id < 0 || id >= nextId) return null;
+        if (rows == null) return listings[id];
+        return rows.present(id) ? rows.toObject(id) : null;
+    }
+
+    /**
+     * @param id a listing id
+     * @return whether the store has a listing with that id
+     */
+    public boolean containsId(int id) {
+        if (id < 0 || id >= nextId) return false;
+        return rows == null ? listings[id] != null : rows.present(id);
+    }
+
+    /**
+     * Creates a cursor, a reusable view of one listing at a time that reads the listing in
+     * place, without creating objects. A cursor is not thread-safe; threads reading the store
+     * at the same time each need their own.
+     * @return a new cursor, not on any listing yet
+     */
+    public Cursor cursor() {
+        return rows == null ? new ObjectCursor() : new RowCursor();
+    }
+
+    /**
+     * @param id a listing id
+     * @return the total price the listing was indexed with
+     */
+    public long totalPrice(int id) {
+        if (!containsId(id)) throw new NoSuchElementException("No listing with id " + id);
+        return totals[id];
+    }
+
+    /**
+     * Re-prices every listing, in parallel, after the pricing rules changed, and brings the
+     * price index up to date: listings whose price changed are moved, or the whole index is
+     * rebuilt when most of them did.
+     * @return the number of listings whose total price changed
+     */
+    public int reprice() {
+        int[] ids = priceIndex.ids();
+        long[] fresh = new long[ids.length];
+        if (rows == null) {
+            IntStream.range(0, ids.length).parallel().forEach(i -> fresh[i] = listings[ids[i]].getTotalPrice());
+        } else {
+            PricingPlan plan = PricingEngine.plan();
+            IntStream.range(0, ids.length).parallel().forEach(i -> fresh[i] = rows.totalPrice(ids[i], plan));
+        }
+
+        int changed = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (fresh[i] == totals[ids[i]]) continue;
+            changed++;
+            int id = ids[i];
+            if (listeners.isEmpty()) continue;
+            RealEstate property = get(id);
+            for (Listener l : listeners) l.removed(id, property, totals[id]);
+            for (Listener l : listeners) l.added(id, property, fresh[i]);
+        }
+        updatePrices(ids, fresh);
+        return changed;
+    }
+
+    /**
+     * Stores new total prices and brings the price index up to date: listings whose price
+     * changed are moved, or the whole index is rebuilt when more than a quarter of it changed.
+     */
+    private void updatePrices(int[] ids, long[] fresh) {
+        int changed = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (fresh[i] != totals[ids[i]]) changed++;
+        }
+        if (changed > size() / 4) {
+            for (int i = 0; i < ids.length; i++) totals[ids[i]] = fresh[i];
+            int[] all = priceIndex.ids();
+            long[] prices = new long[all.length];
+            for (int i = 0; i < all.length; i++) prices[i] = totals[all[i]];
+            priceIndex.rebuild(prices, all);
+        } else if (changed > 0) {
+            for (int i = 0; i < ids.length; i++) {
+                int id = ids[i];
+                if (fresh[i] == totals[id]) continue;
+                priceIndex.remove(totals[id], id);
+                totals[id] = fresh[i];
+                priceIndex.add(fresh[i], id);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return priceIndex.size();
+    }
+
+    /** Removes every listing; ids are not reused. */
+    @Override
+    public void clear() {
+        if (rows == null) Arrays.fill(listings, 0, nextId, null);
+        else rows.clear();
+        priceIndex.clear();
+        byCity.clear();
+        byGenre.clear();
+        for (Listener l : listeners) l.cleared();
+    }
+
+    /** @return the cheapest listing */
+    public RealEstate cheapest() {
+        return get(priceIndex.firstId());
+    }
+
+    /** @return the id of the cheapest listing; the earliest added one among equal prices */
+    public int cheapestId() {
+        return priceIndex.firstId();
+    }
+
+    /** @return the most expensive listing */
+    public RealEstate mostExpensive() {
+        return get(priceIndex.lastId());
+    }
+
+    /** @return the ids of all listings, cheapest first */
+    public int[] ids() {
+        return priceIndex.ids();
+    }
+
+    /**
+     * Returns the ids of the listings whose total price lies in {@code [min, max]}, cheapest first.
+     * @param min the lowest total price, inclusive
+     * @param max the highest total price, inclusive
+     * @return the matching ids
+     */
+    public int[] idsInPriceRange(long min, long max) {
+        return priceIndex.idsInRange(min, max);
+    }
+
+    /**
+     * Passes the ids of the listings whose total price lies in {@code [min, max]} to an
+     * action, cheapest first, without collecting them. The store must not change meanwhile.
+     * @param min the lowest total price, inclusive
+     * @param max the highest total price, inclusive
+     * @param action receives the matching ids
+     */
+    public void forEachInPriceRange(long min, long max, IntConsumer action) {
+        priceIndex.forEachInRange(min, max, action);
+    }
+
+    /**
+     * @param city a city name, matched case-insensitively
+     * @return the ids of the listings in that city, in insertion order
+     */
+    public int[] idsInCity(String city) {
+        IdList ids = byCity.get(cityKey(city));
+        return ids == null ? new int[0] : ids.toArray();
+    }
+
+    /**
+     * @param genre a genre
+     * @return the ids of the listings of that genre, in insertion order
+     */
+    public int[] idsOfGenre(Genre genre) {
+        IdList ids = byGenre.get(genre);
+        return ids == null ? new int[0] : ids.toArray();
+    }
+
+    /** @return one more than the highest id handed out so far */
+    int idLimit() {
+        return nextId;
+    }
+
+    /**
+     * @param min the lowest total price, inclusive
+     * @param max the highest total price, inclusive
+     * @return the number of listings whose total price lies in {@code [min, max]}
+     */
+    int countInPriceRange(long min, long max) {
+        return priceIndex.countInRange(min, max);
+    }
+
+    /**
+     * @param city a city name, matched case-insensitively
+     * @return the number of listings in that city
+     */
+    int countInCity(String city) {
+        IdList ids = byCity.get(cityKey(city));
+        return ids == null ? 0 : ids.size;
+    }
+
+    /**
+     * @param genre a genre
+     * @return the number of listings of that genre
+     */
+    int countOfGenre(Genre genre) {
+        IdList ids = byGenre.get(genre);
+        return ids == null ? 0 : ids.size;
+    }
+
+    /**
+     * @return every listing, cheapest first; of an {@link #offHeap()} store new copies. Its
+     *         {@code remove} removes the listing by id, so {@code removeIf}, {@code removeAll}
+     *         and {@code retainAll} work as well.
+     */
+    @Override
+    public Iterator<RealEstate> iterator() {
+        int[] ids = priceIndex.ids();
+        return new Iterator<>() {
+            private int next;
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < ids.length;
+            }
+
+            @Override
+            public RealEstate next() {
+                if (next >= ids.length) throw new NoSuchElementException();
+                last = ids[next++];
+                return get(last);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) throw new IllegalStateException();
+                removeById(last);
+                last = -1;
+            }
+        };
+    }
+
+    /**
+     * A reusable view of one listing of the store; see {@link #cursor()}. It reads through to
+     * the store, and discounting it discounts the listing in the store.
+     */
+    public abstract class Cursor implements PropertyInterface {
+        private int id = -1;
+
+        private Cursor() {
+        }
+
+        /**
+         * Positions the view on another listing.
+         * @param id the id of a listing in the store
+         * @return this view
+         */
+        public Cursor moveTo(int id) {
+            if (!containsId(id)) throw new NoSuchElementException("No listing with id " + id);
+            this.id = id;
+            return this;
+        }
+
+        /** @return the id of the listing the view is on */
+        public int id() { return id; }
+
+        /** @return the id of the city in {@link CityDictionary#shared()}, -1 without a city */
+        abstract int cityId();
+
+        /** @return whether the listing is a Panel flat */
+        public abstract boolean isPanel();
+
+        /** @return the floor of a Panel flat, 0 for other listings */
+        public abstract int getFloor();
+
+        /** @return whether a Panel flat is in an insulated building, false for other listings */
+        public abstract boolean isInsulated();
+
+        @Override
+        public void makeDiscount(int percentage) { discount(id, percentage); }
+
+        /** @return the total price the listing is indexed with */
+        @Override
+        public long getTotalPrice() { return totals[id]; }
+
+        @Override
+        public String toString() { return get(id).toString(); }
+    }
+
+    /** Cursor over the listing objects. */
+    private final class ObjectCursor extends Cursor {
+
+        @Override
+        public double averageSqmPerRoom() { return listings[id()].averageSqmPerRoom(); }
+
+        @Override
+        public String getCity() { return listings[id()].getCity(); }
+
+        @Override
+        int cityId() { return listings[id()].cityId(); }
+
+        @Override
+        public double getPrice() { return listings[id()].getPrice(); }
+
+        @Override
+        public int getSqm() { return listings[id()].getSqm(); }
+
+        @Override
+        public double getNumberOfRooms() { return listings[id()].getNumberOfRooms(); }
+
+        @Override
+        public Genre getGenre() { return listings[id()].getGenre(); }
+
+        @Override
+        public boolean isPanel() { return listings[id()] instanceof Panel; }
+
+        @Override
+        public int getFloor() { return listings[id()] instanceof Panel flat ? flat.getFloor() : 0; }
+
+        @Override
+        public boolean isInsulated() { return listings[id()] instanceof Panel flat && flat.isInsulated(); }
+    }
+
+    /** Cursor over the off-heap rows. */
+    private final class RowCursor extends Cursor {
+
+        @Override
+        public double averageSqmPerRoom() {
+            double rooms = rows.numberOfRooms(id());
+            return rooms == 0 ? 0 : rows.sqm(id()) / rooms;
+        }
+
+        @Override
+        public String getCity() { return rows.city(id()); }
+
+        @Override
+        int cityId() { return rows.cityId(id()); }
+
+        @Override
+        public double getPrice() { return rows.price(id()); }
+
+        @Override
+        public int getSqm() { return rows.sqm(id()); }
+
+        @Override
+        public double getNumberOfRooms() { return rows.numberOfRooms(id()); }
+
+        @Override
+        public Genre getGenre() { return rows.genre(id()); }
+
+        @Override
+        public boolean isPanel() { return rows.isPanel(id()); }
+
+        @Override
+        public int getFloor() { return rows.floor(id()); }
+
+        @Override
+        public boolean isInsulated() { return rows.isInsulated(id()); }
+    }
+
+    private static String cityKey(String city) {
+        return city.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * List of ids kept in ascending order, since ids are handed out in order. Like the
+     * {@link PriceIndex} it is a list of blocks of at most {@value #BLOCK_SIZE} ids: a removal
+     * is a binary search over the blocks and then inside one block, and only shifts the ids of
+     * that block, so removing every listing of a large city is not quadratic.
+     */
+    private static final class IdList {
+        static final int BLOCK_SIZE = 512;
+
+        private static final class Block {
+            int[] ids = new int[8];
+            int size;
+        }
+
+        private final List<Block> blocks = new ArrayList<>();
+        private int size;
+
+        void add(int id) {
+            Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            if (last == null || last.size == BLOCK_SIZE) {
+                last = new Block();
+                blocks.add(last);
+            } else if (last.size == last.ids.length) {
+                last.ids = Arrays.copyOf(last.ids, Math.min(last.size * 2, BLOCK_SIZE));
+            }
+            last.ids[last.size++] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            // The first block whose last id is at least id
+            int lo = 0;
+            int hi = blocks.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                Block block = blocks.get(mid);
+                if (block.ids[block.size - 1] < id) lo = mid + 1;
+                else hi = mid;
+            }
+            if (lo == blocks.size()) return;
+            Block block = blocks.get(lo);
+            int pos = Arrays.binarySearch(block.ids, 0, block.size, id);
+            if (pos < 0) return;
+            System.arraycopy(block.ids, pos + 1, block.ids, pos, block.size - pos - 1);
+            block.size--;
+            size--;
+            if (block.size == 0) blocks.remove(lo);
+        }
+
+        /** @return the first id accepted by the test, or -1 */
+        int find(IntPredicate test) {
+            for (Block block : blocks) {
+                for (int i = 0; i < block.size; i++) {
+                    if (test.test(block.ids[i])) return block.ids[i];
+                }
+            }
+            return -1;
+        }
+
+        int[] toArray() {
+            int[] out = new int[size];
+            int n = 0;
+            for (Block block : blocks) {
+                System.arraycopy(block.ids, 0, out, n, block.size);
+                n += block.size;
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package realestate;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Columnar representation of a portfolio: one primitive array per field instead of one
+ * object per listing.
+ * <p>
+ * Price and number of rooms are {@code double[]}, sqm and floor {@code int[]}, the genre is
+ * its ordinal in a {@code byte[]}, the city an id into a {@link CityDictionary}, and the Panel
+ * and insulated flags are bits in {@link BitSet}s. A {@link Row} is a reusable flyweight that
+ * implements {@link PropertyInterface} on top of one row, so code written against the
+ * interface can walk the table without materializing listings.
+ * <p>
+ * Memory per listing, 64-bit JVM with compressed oops (measured with 1,000,000 listings,
+ * 40% Panels, in the brackets):
+ * <pre>
+ *   object model     RealEstate 56 B (with the city id and cached total price), Panel 64 B,
+ *                    + 4 B reference in the holding array
+ *                    = 60-68 B, ~63 B average (measured 62.7 B), before any index
+ *   old TreeSet      + 40 B TreeMap.Entry per listing = ~103 B
+ *   PropertyTable    8 price + 8 rooms + 4 sqm + 4 floor + 4 city + 1 genre + 2 bits
+ *                    = 29.25 B (measured 29.3 B), no headers, no pointers to chase
+ * </pre>
+ * City names are shared strings in both models and are not counted. Not thread-safe.
+ */
+public class PropertyTable {
+
+    private static final Genre[] GENRES = Genre.values();
+
+    private final CityDictionary cities;
+
+    private double[] price;
+    private double[] numberOfRooms;
+    private int[] sqm;
+    private int[] floor;
+    private int[] city;
+    private byte[] genre;
+    // City multipliers of the current pricing plan by city id, resolved once per city and plan
+    private double[] cityMultipliers = new double[16];
+    private int resolvedCities;
+    private PricingPlan resolvedPlan;
+    private final BitSet panel = new BitSet();
+    private final BitSet insulated = new BitSet();
+    private int size;
+
+    /** Creates an empty table with its own city dictionary. */
+    public PropertyTable() {
+        this(new CityDictionary(), 16);
+    }
+
+    /**
+     * Creates an empty table.
+     * @param cities the dictionary to encode city names with
+     * @param capacity the number of rows to allocate up front
+     */
+    public PropertyTable(CityDictionary cities, int capacity) {
+        this.cities = cities;
+        int n = Math.max(1, capacity);
+        price = new double[n];
+        numberOfRooms = new double[n];
+        sqm = new int[n];
+        floor = new int[n];
+        city = new int[n];
+        genre = new byte[n];
+    }
+
+    /**
+     * Builds a table holding the given listings, in iteration order.
+     * @param properties the listings
+     * @return the new table
+     */
+    public static PropertyTable of(Iterable<? extends RealEstate> properties) {
+        PropertyTable table = new PropertyTable();
+        for (RealEstate p : properties) {
+            table.add(p);
+        }
+        return table;
+    }
+
+    /**
+     * Appends a listing.
+     * @param property the listing, a RealEstate or a Panel
+     * @return the row number of the listing
+     */
+    public int add(RealEstate property) {
+        if (property instanceof Panel p) {
+            return add(p.getCity(), p.getPrice(), p.getSqm(), p.getNumberOfRooms(), p.getGenre(), true,
+                    p.getFloor(), p.isInsulated());
+        }
+        return add(property.getCity(), property.getPrice(), property.getSqm(), property.getNumberOfRooms(),
+                property.getGenre(), false, 0, false);
+    }
+
+    /**
+     * Appends a listing from raw field values.
+     * @param cityName the city
+     * @param pricePerSqm price per sqm
+     * @param size size in square meters
+     * @param rooms number of rooms
+     * @param type the genre
+     * @param isPanel whether the listing is a Panel flat
+     * @param floorNumber the floor, for Panels
+     * @param isInsulated whether the building is insulated, for Panels
+     * @return the row number of the listing
+     */
+    public int add(String cityName, double pricePerSqm, int size, double rooms, Genre type,
+                   boolean isPanel, int floorNumber, boolean isInsulated) {
+        int row = this.size;
+        if (row == price.length) grow();
+        price[row] = pricePerSqm;
+        numberOfRooms[row] = rooms;
+        sqm[row] = size;
+        floor[row] = floorNumber;
+        city[row] = cities.idOf(cityName);
+        genre[row] = (byte) type.ordinal();
+        panel.set(row, isPanel);
+        insulated.set(row, isPanel && isInsulated);
+        this.size = row + 1;
+        return row;
+    }
+
+    /** @return the number of rows */
+    public int size() { return size; }
+
+    /** @return the dictionary city ids are encoded with */
+    public CityDictionary cities() { return cities; }
+
+    public double price(int row) { return price[check(row)]; }
+
+    public double numberOfRooms(int row) { return numberOfRooms[check(row)]; }
+
+    public int sqm(int row) { return sqm[check(row)]; }
+
+    public int floor(int row) { return floor[check(row)]; }
+
+    public int cityId(int row) { return city[check(row)]; }
+
+    public String city(int row) { return cities.name(city[check(row)]); }
+
+    public Genre genre(int row) { return GENRES[genre[check(row)]]; }
+
+    public boolean isPanel(int row) { return panel.get(check(row)); }
+
+    public boolean isInsulated(int row) { return insulated.get(check(row)); }
+
+    /**
+     * Calculates the total price of a row exactly as the matching RealEstate or Panel would,
+     * with the pricing plan currently in force.
+     * @param row the row number
+     * @return the total price
+     */
+    public long totalPrice(int row) {
+        check(row);
+        PricingPlan plan = PricingEngine.plan();
+        if (plan != resolvedPlan || city[row] >= resolvedCities) resolveCityMultipliers(plan);
+        long total = plan.totalPrice(price[row], sqm[row], cityMultipliers[city[row]]);
+        return panel.get(row) ? plan.panelTotalPrice(total, floor[row], insulated.get(row)) : total;
+    }
+
+    /**
+     * Applies a discount to the price per sqm of a row, as {@link RealEstate#makeDiscount} does.
+     * @param row the row number
+     * @param percentage the percentage discount to apply
+     */
+    public void makeDiscount(int row, int percentage) {
+        check(row);
+        price[row] = price[row] * (100 - percentage) / 100.0;
+    }
+
+    /**
+     * Applies a discount to every selected row; see {@link BulkDiscount}. A selection of every
+     * row discounts the price column in place, others gather the selected prices first.
+     * @param selection the rows to discount
+     * @param percentage the percentage discount to apply
+     * @return the number of rows discounted
+     */
+    public int discountAll(BulkDiscount.Selection selection, int percentage) {
+        if (selection.isAll()) {
+            BulkDiscount.discount(price, 0, size, percentage);
+            return size;
+        }
+        // Cities are matched once per dictionary entry, the other criteria per row
+        BulkDiscount.Selection inCity = BulkDiscount.Selection.all().inCity(selection.city());
+        BulkDiscount.Selection rest = new BulkDiscount.Selection(null, selection.genre(), selection.maxFloor());
+        boolean[] cityMatches = new boolean[cities.size()];
+        for (int id = 0; id < cityMatches.length; id++) {
+            cityMatches[id] = inCity.matches(cities.name(id), null, false, 0);
+        }
+        int[] rows = new int[size];
+        int n = 0;
+        for (int row = 0; row < size; row++) {
+            if (cityMatches[city[row]] && rest.matches(null, GENRES[genre[row]], panel.get(row), floor[row])) {
+                rows[n++] = row;
+            }
+        }
+        double[] selected = new double[n];
+        for (int i = 0; i < n; i++) selected[i] = price[rows[i]];
+        BulkDiscount.discount(selected, 0, n, percentage);
+        for (int i = 0; i < n; i++) price[rows[i]] = selected[i];
+        return n;
+    }
+
+    /**
+     * Creates the RealEstate or Panel object a row stands for.
+     * @param row the row number
+     * @return a new listing object
+     */
+    public RealEstate toObject(int row) {
+        check(row);
+        if (panel.get(row)) {
+            return new Panel(city(row), price[row], sqm[row], numberOfRooms[row], genre(row), floor[row], insulated.get(row));
+        }
+        return new RealEstate(city(row), price[row], sqm[row], numberOfRooms[row], genre(row));
+    }
+
+    /**
+     * Creates a flyweight positioned on a row.
+     * @param row the row number
+     * @return a new flyweight; move it with {@link Row#moveTo(int)} rather than creating more
+     */
+    public Row row(int row) {
+        return new Row().moveTo(row);
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        return row;
+    }
+
+    private void resolveCityMultipliers(PricingPlan plan) {
+        if (plan != resolvedPlan) {
+            resolvedPlan = plan;
+            resolvedCities = 0;
+        }
+        int n = cities.size();
+        if (n > cityMultipliers.length) cityMultipliers = Arrays.copyOf(cityMultipliers, Math.max(n, cityMultipliers.length * 2));
+        for (int id = resolvedCities; id < n; id++) {
+            cityMultipliers[id] = plan.cityMultiplier(cities.name(id));
+        }
+        resolvedCities = n;
+    }
+
+    private void grow() {
+        int n = price.length * 2;
+        price = Arrays.copyOf(price, n);
+        numberOfRooms = Arrays.copyOf(numberOfRooms, n);
+        sqm = Arrays.copyOf(sqm, n);
+        floor = Arrays.copyOf(floor, n);
+        city = Arrays.copyOf(city, n);
+        genre = Arrays.copyOf(genre, n);
+    }
+
+    /**
+     * Reusable view of one row. The view reads through to the columns, so it sees discounts
+     * made on the table and changes the table when discounted itself.
+     */
+    public final class Row implements PropertyInterface {
+        private int row;
+
+        private Row() {
+        }
+
+        /**
+         * Positions the view on another row.
+         * @param row the row number
+         * @return this view
+         */
+        public Row moveTo(int row) {
+            this.row = check(row);
+            return this;
+        }
+
+        /** @return the row the view is on */
+        public int row() { return row; }
+
+        @Override
+        public void makeDiscount(int percentage) { PropertyTable.this.makeDiscount(row, percentage); }
+
+        @Override
+        public long getTotalPrice() { return totalPrice(row); }
+
+        @Override
+        public double averageSqmPerRoom() {
+            double rooms = numberOfRooms[row];
+            return rooms == 0 ? 0 : sqm[row] / rooms;
+        }
+
+        @Override
+        public String getCity() { return city(row); }
+
+        @Override
+        public double getPrice() { return price[row]; }
+
+        @Override
+        public int getSqm() { return sqm[row]; }
+
+        @Override
+        public double getNumberOfRooms() { return numberOfRooms[row]; }
+
+        @Override
+        public Genre getGenre() { return genre(row); }
+
+        public boolean isPanel() { return panel.get(row); }
+
+        public int getFloor() { return floor[row]; }
+
+        public boolean isInsulated() { return insulated.get(row); }
+
+        @Override
+        public String toString() { return toObject(row).toString(); }
+    }
+}
@@ -0,0 +1,199 @@
+package realestate;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Mergeable sketch of a stream of numbers that answers quantile queries in bounded memory;
+ * a KLL sketch (Karnin, Lang, Liberty, 2016).
+ * <p>
+ * Values are kept in levels of compactors: level h holds values standing for 2<sup>h</sup>
+ * inputs each. When the sketch is full, the lowest level over its capacity is sorted and
+ * every other value (odd or even positions, by a coin flip) moves up a level with double the
+ * weight; the rest is dropped. The top level holds up to {@code k} values and each level below
+ * holds 2/3 of the level above, so at most about 3k values are retained, whatever the
+ * number of inputs. Sketches of parts of a stream merge into a sketch of the whole with the
+ * same guarantees, so they can be built in parallel.
+ * <p>
+ * The rank error is at most about 1.7/k of the stream length (99% confidence) and in practice
+ * well below; see {@link PortfolioAnalytics} for measurements. Below about k values nothing is compacted and
+ * quantiles are exact. The coin is seeded, so the same inputs give the same answers.
+ * Not thread-safe.
+ */
+public final class QuantileSketch {
+
+    /** Default top-level capacity: at most about 500 values (4 KB), rank error around 0.2%. */
+    public static final int DEFAULT_K = 200;
+
+    private static final double SHRINK = 2.0 / 3.0;
+
+    private final int k;
+    private final SplittableRandom coin;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private int retained;
+    private int capacity;
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /** Creates a sketch with {@link #DEFAULT_K}. */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates a sketch.
+     * @param k capacity of the top level; the rank error shrinks with 1/k
+     */
+    public QuantileSketch(int k) {
+        if (k < 8) throw new IllegalArgumentException("k must be at least 8: " + k);
+        this.k = k;
+        this.coin = new SplittableRandom(k);
+        levels[0] = new double[levelCapacity(0)];
+        capacity = totalCapacity();
+    }
+
+    /**
+     * Adds a value.
+     * @param value the value; NaN is ignored
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) return;
+        if (count++ == 0) {
+            min = max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        append(0, value);
+        retained++;
+        if (retained >= capacity) compress();
+    }
+
+    /**
+     * Adds the values of another sketch, which is left unchanged.
+     * @param other a sketch of another part of the stream
+     */
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) return;
+        while (levels.length < other.levels.length) grow();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) append(h, other.levels[h][i]);
+        }
+        retained += other.retained;
+        min = count == 0 ? other.min : Math.min(min, other.min);
+        max = count == 0 ? other.max : Math.max(max, other.max);
+        count += other.count;
+        while (retained >= capacity) compress();
+    }
+
+    /** @return the number of values added */
+    public long count() {
+        return count;
+    }
+
+    /** @return the number of values the sketch keeps */
+    public int retained() {
+        return retained;
+    }
+
+    /** @return the smallest value added, NaN if none */
+    public double min() {
+        return min;
+    }
+
+    /** @return the largest value added, NaN if none */
+    public double max() {
+        return max;
+    }
+
+    /**
+     * Estimates a quantile: the smallest retained value whose estimated rank is at least
+     * {@code q * count}. Quantile 0 and 1 are the exact minimum and maximum.
+     * @param q the quantile, from 0 to 1, for example 0.99
+     * @return the estimate, NaN if the sketch is empty
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) throw new IllegalArgumentException("Quantile outside [0, 1]: " + q);
+        if (count == 0) return Double.NaN;
+        if (q == 0) return min;
+        if (q == 1) return max;
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                weights[n++] = 1L << h;
+            }
+        }
+        sortByValue(values, weights, n);
+        double target = q * count;
+        long rank = 0;
+        for (int i = 0; i < n; i++) {
+            rank += weights[i];
+            if (rank >= target) return values[i];
+        }
+        return max;
+    }
+
+    private void append(int h, double value) {
+        if (sizes[h] == levels[h].length) levels[h] = Arrays.copyOf(levels[h], Math.max(4, sizes[h] * 2));
+        levels[h][sizes[h]++] = value;
+    }
+
+    /** Compacts the lowest level over its capacity, and goes on while the sketch is still full. */
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] < levelCapacity(h)) continue;
+            if (h + 1 == levels.length) grow();
+            double[] level = levels[h];
+            int size = sizes[h];
+            Arrays.sort(level, 0, size);
+            // An odd value out stays behind
+            int kept = size % 2;
+            double leftover = level[size - 1];
+            for (int i = coin.nextBoolean() ? 1 : 0; i < size - kept; i += 2) append(h + 1, level[i]);
+            sizes[h] = 0;
+            if (kept == 1) append(h, leftover);
+            retained = 0;
+            for (int s : sizes) retained += s;
+            if (retained < capacity) return;
+        }
+    }
+
+    private void grow() {
+        int h = levels.length;
+        levels = Arrays.copyOf(levels, h + 1);
+        sizes = Arrays.copyOf(sizes, h + 1);
+        levels[h] = new double[4];
+        capacity = totalCapacity();
+    }
+
+    /** @return the capacity of a level: k at the top, shrinking by 2/3 per level down */
+    private int levelCapacity(int h) {
+        int depth = levels.length - 1 - h;
+        return (int) Math.ceil(k * Math.pow(SHRINK, depth)) + 1;
+    }
+
+    private int totalCapacity() {
+        int total = 0;
+        for (int h = 0; h < levels.length; h++) total += levelCapacity(h);
+        return total;
+    }
+
+    private static void sortByValue(double[] values, long[] weights, int n) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        double[] v = new double[n];
+        long[] w = new long[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = values[order[i]];
+            w[i] = weights[order[i]];
+        }
+        System.arraycopy(v, 0, values, 0, n);
+        System.arraycopy(w, 0, weights, 0, n);
+    }
+}
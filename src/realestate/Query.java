@@ -0,0 +1,581 @@
+package realestate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * A question about the listings of a {@link PropertyStore}: filters, then one aggregation.
+ * <pre>
+ *   int best = Query.on(store).city("Budapest").genre(Genre.CONDOMINIUM).mostExpensive();
+ *   int[] cheap = Query.on(store).genre(Genre.CONDOMINIUM).totalPriceAtMost(limit).ids();
+ * </pre>
+ * The store indexes total price, city and genre. Before running, a query is planned: one of
+ * those indexes (or, without any index filter, the whole price index) supplies the candidate
+ * ids; other index filters are either turned into bitmaps of their ids and probed, or checked
+ * on the listing; the remaining filters (size, rooms, Panel floor and insulation) are checked
+ * on the listing. The planner estimates each plan from the index sizes, assuming independent
+ * filters, and picks the cheapest, counting an id read or a bitmap probe as 1 and a look at a
+ * listing object, usually a cache miss, as {@value #OBJECT_COST}. Candidate lists of
+ * {@value PropertyStore#PARALLEL_THRESHOLD} ids or more are filtered in parallel. {@link #explain()}
+ * describes the chosen plan. Listings are read through {@link PropertyStore.Cursor cursors}, one
+ * per thread, so queries run the same way on stores that keep their listings off the heap.
+ * <p>
+ * Results come cheapest first, equal prices in insertion order, like the store itself. Range
+ * filters narrow each other; the other filters replace an earlier value. The store must not
+ * change while a query runs.
+ */
+public final class Query {
+
+    /** Cost of checking a listing object, relative to reading an id or probing a bitmap. */
+    static final int OBJECT_COST = 4;
+    /** Candidates filtered per task when filtering in parallel. */
+    private static final int SLICE = 16_384;
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    /**
+     * The aggregates of one pass over the matching listings.
+     * @param count number of matching listings
+     * @param totalPrice sum of their total prices
+     * @param cheapestId id of the cheapest, the earliest added among equal prices, or -1
+     * @param mostExpensiveId id of the most expensive, the earliest added among equal prices, or -1
+     * @param averagePricePerSqm average price per sqm, 0 if nothing matched
+     */
+    public record Summary(long count, long totalPrice, int cheapestId, int mostExpensiveId, double averagePricePerSqm) {}
+
+    /** Where the candidates of a plan come from. */
+    private enum Access { PRICE_INDEX, CITY_INDEX, GENRE_INDEX }
+
+    /**
+     * A way to run the query.
+     * @param access the index supplying candidates
+     * @param candidates the number of candidates
+     * @param cityBitmap whether the city filter is probed in a bitmap
+     * @param genreBitmap whether the genre filter is probed in a bitmap
+     * @param estimate estimated number of candidates passing the index filters
+     * @param cost estimated cost
+     */
+    private record Plan(Access access, int candidates, boolean cityBitmap, boolean genreBitmap, double estimate, double cost) {}
+
+    private final PropertyStore store;
+    private String city;
+    private String cityKey;
+    private Genre genre;
+    private int minSqm = Integer.MIN_VALUE;
+    private int maxSqm = Integer.MAX_VALUE;
+    private double minRooms = Double.NEGATIVE_INFINITY;
+    private double maxRooms = Double.POSITIVE_INFINITY;
+    private Boolean panel;
+    private int minFloor = Integer.MIN_VALUE;
+    private int maxFloor = Integer.MAX_VALUE;
+    private Boolean insulated;
+    private long minTotal = Long.MIN_VALUE;
+    private long maxTotal = Long.MAX_VALUE;
+
+    private Query(PropertyStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Starts a query over every listing of a store.
+     * @param store the store
+     * @return the query
+     */
+    public static Query on(PropertyStore store) {
+        return new Query(store);
+    }
+
+    /**
+     * @param name a city, matched case-insensitively
+     * @return this query, limited to that city
+     */
+    public Query city(String name) {
+        this.city = name;
+        this.cityKey = name.toLowerCase(Locale.ROOT);
+        return this;
+    }
+
+    /**
+     * @param type a genre
+     * @return this query, limited to that genre
+     */
+    public Query genre(Genre type) {
+        this.genre = type;
+        return this;
+    }
+
+    /**
+     * @param min the smallest size in sqm, inclusive
+     * @param max the largest size in sqm, inclusive
+     * @return this query, limited to that size
+     */
+    public Query sqmBetween(int min, int max) {
+        minSqm = Math.max(minSqm, min);
+        maxSqm = Math.min(maxSqm, max);
+        return this;
+    }
+
+    /**
+     * @param min the lowest number of rooms, inclusive
+     * @param max the highest number of rooms, inclusive
+     * @return this query, limited to that number of rooms
+     */
+    public Query roomsBetween(double min, double max) {
+        minRooms = Math.max(minRooms, min);
+        maxRooms = Math.min(maxRooms, max);
+        return this;
+    }
+
+    /**
+     * @param isPanel true for Panel flats only, false for all other listings only
+     * @return this query
+     */
+    public Query panel(boolean isPanel) {
+        this.panel = isPanel;
+        return this;
+    }
+
+    /**
+     * @param min the lowest floor, inclusive
+     * @param max the highest floor, inclusive
+     * @return this query, limited to Panel flats on those floors
+     */
+    public Query floorBetween(int min, int max) {
+        minFloor = Math.max(minFloor, min);
+        maxFloor = Math.min(maxFloor, max);
+        return this;
+    }
+
+    /**
+     * @param isInsulated whether the building is insulated
+     * @return this query, limited to Panel flats in such buildings
+     */
+    public Query insulated(boolean isInsulated) {
+        this.insulated = isInsulated;
+        return this;
+    }
+
+    /**
+     * @param min the lowest total price, inclusive
+     * @param max the highest total price, inclusive
+     * @return this query, limited to that price range
+     */
+    public Query totalPriceBetween(long min, long max) {
+        minTotal = Math.max(minTotal, min);
+        maxTotal = Math.min(maxTotal, max);
+        return this;
+    }
+
+    /**
+     * @param max the highest total price, inclusive
+     * @return this query, limited to listings costing at most that
+     */
+    public Query totalPriceAtMost(long max) {
+        return totalPriceBetween(Long.MIN_VALUE, max);
+    }
+
+    /**
+     * @param min the lowest total price, inclusive
+     * @return this query, limited to listings costing at least that
+     */
+    public Query totalPriceAtLeast(long min) {
+        return totalPriceBetween(min, Long.MAX_VALUE);
+    }
+
+    /** @return the ids of the matching listings, cheapest first */
+    public int[] ids() {
+        return run(true);
+    }
+
+    /**
+     * Passes the ids of the matching listings to an action, cheapest first, straight from the
+     * price index: memory use does not depend on the number of matches, but the city and genre
+     * indexes are not used. The store must not change meanwhile.
+     * @param action receives the matching ids
+     */
+    public void forEach(IntConsumer action) {
+        if (empty()) return;
+        Plan plan = new Plan(Access.PRICE_INDEX, store.size(), false, false, store.size(), 0);
+        log.fine(() -> "Query plan: " + describe(plan));
+        if (checks(plan) == 0) {
+            store.forEachInPriceRange(minTotal, maxTotal, action);
+        } else {
+            Filter test = filter(plan);
+            PropertyStore.Cursor cursor = store.cursor();
+            store.forEachInPriceRange(minTotal, maxTotal, id -> {
+                if (test.test(id, cursor)) action.accept(id);
+            });
+        }
+    }
+
+    /** @return the number of matching listings */
+    public int count() {
+        if (empty()) return 0;
+        Plan plan = plan(false);
+        // An index answers a query with no other filter by its size
+        if (!plan.cityBitmap() && !plan.genreBitmap() && checks(plan) == 0) return plan.candidates();
+        return run(plan, false).length;
+    }
+
+    /** @return the sum of the total prices of the matching listings */
+    public long sumTotalPrice() {
+        long sum = 0;
+        for (int id : run(false)) sum += store.totalPrice(id);
+        return sum;
+    }
+
+    /** @return the id of the cheapest matching listing, the earliest added among equal prices, or -1 */
+    public int cheapest() {
+        return summary().cheapestId();
+    }
+
+    /** @return the id of the most expensive matching listing, the earliest added among equal prices, or -1 */
+    public int mostExpensive() {
+        return summary().mostExpensiveId();
+    }
+
+    /**
+     * Finds the most expensive matching listings without sorting all of them.
+     * @param k the number of listings wanted
+     * @return the ids of at most {@code k} listings, most expensive first, equal prices in
+     *         insertion order
+     */
+    public int[] topK(int k) {
+        return rank(TopK.largest(k));
+    }
+
+    /**
+     * Finds the cheapest matching listings without sorting all of them.
+     * @param k the number of listings wanted
+     * @return the ids of at most {@code k} listings, cheapest first, equal prices in
+     *         insertion order
+     */
+    public int[] bottomK(int k) {
+        return rank(TopK.smallest(k));
+    }
+
+    private int[] rank(TopK ranking) {
+        for (int id : run(false)) ranking.offer(store.totalPrice(id), id);
+        return ranking.ids();
+    }
+
+    /**
+     * Summarizes any numeric attribute of the matching listings, such as
+     * {@code PropertyInterface::getSqm}; the values are added in price order.
+     * @param attribute the attribute, applied to a cursor on each listing
+     * @return count, sum, minimum, average and maximum of the attribute
+     */
+    public DoubleSummaryStatistics summarize(ToDoubleFunction<? super PropertyStore.Cursor> attribute) {
+        int[] ids = run(true);
+        IntStream positions = IntStream.range(0, ids.length);
+        if (ids.length >= PropertyStore.PARALLEL_THRESHOLD) positions = positions.parallel();
+        return positions.collect(() -> new Statistics(store.cursor()),
+                (s, i) -> s.accept(attribute.applyAsDouble(s.cursor.moveTo(ids[i]))),
+                Statistics::combine);
+    }
+
+    /**
+     * Computes count, total price, cheapest, most expensive and average price per sqm of the
+     * matching listings in one pass; prices per sqm are added in price order.
+     * @return the summary
+     */
+    public Summary summary() {
+        int[] ids = run(true);
+        IntStream positions = IntStream.range(0, ids.length);
+        if (ids.length >= PropertyStore.PARALLEL_THRESHOLD) positions = positions.parallel();
+        Aggregate a = positions.collect(() -> new Aggregate(store.cursor()), (agg, i) -> agg.add(ids[i], store),
+                Aggregate::merge);
+        return new Summary(a.count, a.totalPrice, a.cheapestId, a.mostExpensiveId, a.pricePerSqm.getAverage());
+    }
+
+    /** @return a description of how the query would run */
+    public String explain() {
+        return describe(plan(true));
+    }
+
+    /**
+     * Materializes the matching listings' ids.
+     * @param ordered whether the ids must come in price order
+     */
+    private int[] run(boolean ordered) {
+        return run(plan(ordered), ordered);
+    }
+
+    private int[] run(Plan plan, boolean ordered) {
+        log.fine(() -> "Query plan: " + describe(plan));
+        if (empty()) return new int[0];
+        int[] candidates = switch (plan.access()) {
+            case PRICE_INDEX -> priceFiltered() ? store.idsInPriceRange(minTotal, maxTotal) : store.ids();
+            case CITY_INDEX -> store.idsInCity(city);
+            case GENRE_INDEX -> store.idsOfGenre(genre);
+        };
+        int[] ids = checks(plan) == 0 && !plan.cityBitmap() && !plan.genreBitmap()
+                ? candidates : select(candidates, filter(plan));
+        if (ordered && plan.access() != Access.PRICE_INDEX && ids.length > 1) {
+            long[] totals = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) totals[i] = store.totalPrice(ids[i]);
+            PriceIndex sorted = new PriceIndex();
+            sorted.rebuild(totals, ids);
+            ids = sorted.ids();
+        }
+        return ids;
+    }
+
+    /** Keeps the candidates that pass a filter, in order; in parallel slices, each with its own cursor. */
+    private int[] select(int[] candidates, Filter test) {
+        if (candidates.length < PropertyStore.PARALLEL_THRESHOLD) return select(candidates, 0, candidates.length, test);
+        int slices = (candidates.length + SLICE - 1) / SLICE;
+        int[][] kept = IntStream.range(0, slices).parallel()
+                .mapToObj(i -> select(candidates, i * SLICE, Math.min(candidates.length, (i + 1) * SLICE), test))
+                .toArray(int[][]::new);
+        int n = 0;
+        for (int[] part : kept) n += part.length;
+        int[] ids = new int[n];
+        n = 0;
+        for (int[] part : kept) {
+            System.arraycopy(part, 0, ids, n, part.length);
+            n += part.length;
+        }
+        return ids;
+    }
+
+    private int[] select(int[] candidates, int from, int to, Filter test) {
+        PropertyStore.Cursor cursor = store.cursor();
+        int[] kept = new int[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (test.test(candidates[i], cursor)) kept[n++] = candidates[i];
+        }
+        return n == kept.length ? kept : Arrays.copyOf(kept, n);
+    }
+
+    /** Checks a candidate, reading its listing through a cursor of the thread if needed. */
+    @FunctionalInterface
+    private interface Filter {
+        boolean test(int id, PropertyStore.Cursor cursor);
+    }
+
+    private Filter filter(Plan plan) {
+        BitSet cityBits = plan.cityBitmap() ? bitmap(store.idsInCity(city)) : null;
+        BitSet genreBits = plan.genreBitmap() ? bitmap(store.idsOfGenre(genre)) : null;
+        boolean checkPrice = plan.access() != Access.PRICE_INDEX && priceFiltered();
+        boolean checkCity = city != null && plan.access() != Access.CITY_INDEX && !plan.cityBitmap();
+        boolean checkGenre = genre != null && plan.access() != Access.GENRE_INDEX && !plan.genreBitmap();
+        boolean checkListing = checkCity || checkGenre || listingFiltered();
+        // Cities are matched once per dictionary entry, the listings by their city id
+        boolean[] cityMatches = null;
+        if (checkCity) {
+            CityDictionary cities = CityDictionary.shared();
+            cityMatches = new boolean[cities.size()];
+            for (int id = 0; id < cityMatches.length; id++) {
+                cityMatches[id] = cities.name(id).toLowerCase(Locale.ROOT).equals(cityKey);
+            }
+        }
+        boolean[] inCity = cityMatches;
+        return (id, cursor) -> {
+            if (checkPrice) {
+                long total = store.totalPrice(id);
+                if (total < minTotal || total > maxTotal) return false;
+            }
+            if (cityBits != null && !cityBits.get(id)) return false;
+            if (genreBits != null && !genreBits.get(id)) return false;
+            return !checkListing || matches(cursor.moveTo(id), inCity, checkGenre);
+        };
+    }
+
+    private boolean matches(PropertyStore.Cursor p, boolean[] inCity, boolean checkGenre) {
+        if (inCity != null) {
+            int cityId = p.cityId();
+            if (cityId < 0 || cityId >= inCity.length || !inCity[cityId]) return false;
+        }
+        if (checkGenre && p.getGenre() != genre) return false;
+        if (p.getSqm() < minSqm || p.getSqm() > maxSqm) return false;
+        if (p.getNumberOfRooms() < minRooms || p.getNumberOfRooms() > maxRooms) return false;
+        boolean isPanel = p.isPanel();
+        if (panel != null && isPanel != panel) return false;
+        if (panelOnly()) {
+            if (!isPanel) return false;
+            if (p.getFloor() < minFloor || p.getFloor() > maxFloor) return false;
+            if (insulated != null && p.isInsulated() != insulated) return false;
+        }
+        return true;
+    }
+
+    /** Picks the cheapest plan. */
+    private Plan plan(boolean ordered) {
+        int n = store.size();
+        Plan best = plan(Access.PRICE_INDEX, priceFiltered() ? store.countInPriceRange(minTotal, maxTotal) : n, n, ordered);
+        if (city != null) best = cheaper(best, plan(Access.CITY_INDEX, store.countInCity(city), n, ordered));
+        if (genre != null) best = cheaper(best, plan(Access.GENRE_INDEX, store.countOfGenre(genre), n, ordered));
+        return best;
+    }
+
+    /** Picks the cheapest use of bitmaps for a given candidate source. */
+    private Plan plan(Access access, int candidates, int n, boolean ordered) {
+        boolean cityOther = city != null && access != Access.CITY_INDEX;
+        boolean genreOther = genre != null && access != Access.GENRE_INDEX;
+        Plan best = null;
+        for (int choice = 0; choice < 4; choice++) {
+            boolean cityBitmap = (choice & 1) != 0;
+            boolean genreBitmap = (choice & 2) != 0;
+            if ((cityBitmap && !cityOther) || (genreBitmap && !genreOther)) continue;
+            double cost = candidates;
+            double remaining = candidates;
+            if (access != Access.PRICE_INDEX && priceFiltered()) {
+                cost += remaining;
+                remaining *= selectivity(store.countInPriceRange(minTotal, maxTotal), n);
+            }
+            if (cityBitmap) {
+                int size = store.countInCity(city);
+                cost += size + remaining;
+                remaining *= selectivity(size, n);
+            }
+            if (genreBitmap) {
+                int size = store.countOfGenre(genre);
+                cost += size + remaining;
+                remaining *= selectivity(size, n);
+            }
+            if ((cityOther && !cityBitmap) || (genreOther && !genreBitmap) || listingFiltered()) {
+                cost += remaining * OBJECT_COST;
+                if (cityOther && !cityBitmap) remaining *= selectivity(store.countInCity(city), n);
+                if (genreOther && !genreBitmap) remaining *= selectivity(store.countOfGenre(genre), n);
+            }
+            if (ordered && access != Access.PRICE_INDEX && remaining > 1) {
+                cost += remaining * (Math.log(remaining) / Math.log(2));
+            }
+            Plan plan = new Plan(access, candidates, cityBitmap, genreBitmap, remaining, cost);
+            best = best == null ? plan : cheaper(best, plan);
+        }
+        return best;
+    }
+
+    private static Plan cheaper(Plan a, Plan b) {
+        return b.cost() < a.cost() ? b : a;
+    }
+
+    private static double selectivity(int matching, int n) {
+        return n == 0 ? 0 : (double) matching / n;
+    }
+
+    /** @return the number of filters checked per candidate other than bitmap probes */
+    private int checks(Plan plan) {
+        int checks = listingFiltered() ? 1 : 0;
+        if (plan.access() != Access.PRICE_INDEX && priceFiltered()) checks++;
+        if (city != null && plan.access() != Access.CITY_INDEX && !plan.cityBitmap()) checks++;
+        if (genre != null && plan.access() != Access.GENRE_INDEX && !plan.genreBitmap()) checks++;
+        return checks;
+    }
+
+    private String describe(Plan plan) {
+        List<String> steps = new ArrayList<>();
+        steps.add(switch (plan.access()) {
+            case PRICE_INDEX -> !priceFiltered() ? "full scan"
+                    : minTotal == Long.MIN_VALUE ? "price index <= " + maxTotal
+                    : maxTotal == Long.MAX_VALUE ? "price index >= " + minTotal
+                    : "price index [" + minTotal + ", " + maxTotal + "]";
+            case CITY_INDEX -> "city index " + city;
+            case GENRE_INDEX -> "genre index " + genre;
+        } + " (" + plan.candidates() + " candidates" + (plan.candidates() >= PropertyStore.PARALLEL_THRESHOLD ? ", parallel)" : ")"));
+        if (plan.access() != Access.PRICE_INDEX && priceFiltered()) steps.add("check total price");
+        if (plan.cityBitmap()) steps.add("bitmap city " + city);
+        if (plan.genreBitmap()) steps.add("bitmap genre " + genre);
+        List<String> checks = new ArrayList<>();
+        if (city != null && plan.access() != Access.CITY_INDEX && !plan.cityBitmap()) checks.add("city");
+        if (genre != null && plan.access() != Access.GENRE_INDEX && !plan.genreBitmap()) checks.add("genre");
+        if (minSqm != Integer.MIN_VALUE || maxSqm != Integer.MAX_VALUE) checks.add("sqm");
+        if (minRooms != Double.NEGATIVE_INFINITY || maxRooms != Double.POSITIVE_INFINITY) checks.add("rooms");
+        if (panel != null || panelOnly()) checks.add("panel");
+        if (!checks.isEmpty()) steps.add("check " + String.join(", ", checks));
+        return String.join(" -> ", steps) + String.format(Locale.ROOT, "; index filters keep ~%.0f, cost %.0f", plan.estimate(), plan.cost());
+    }
+
+    private boolean priceFiltered() {
+        return minTotal != Long.MIN_VALUE || maxTotal != Long.MAX_VALUE;
+    }
+
+    private boolean panelOnly() {
+        return minFloor != Integer.MIN_VALUE || maxFloor != Integer.MAX_VALUE || insulated != null;
+    }
+
+    private boolean listingFiltered() {
+        return minSqm != Integer.MIN_VALUE || maxSqm != Integer.MAX_VALUE
+                || minRooms != Double.NEGATIVE_INFINITY || maxRooms != Double.POSITIVE_INFINITY
+                || panel != null || panelOnly();
+    }
+
+    /** @return whether a range filter is empty, so nothing can match */
+    private boolean empty() {
+        return minTotal > maxTotal || minSqm > maxSqm || minRooms > maxRooms || minFloor > maxFloor;
+    }
+
+    private BitSet bitmap(int[] ids) {
+        BitSet bits = new BitSet(store.idLimit());
+        for (int id : ids) bits.set(id);
+        return bits;
+    }
+
+    /** @return whether (total1, id1) ranks before (total2, id2): more expensive, or equal and added earlier */
+    private static boolean before(long total1, int id1, long total2, int id2) {
+        return total1 > total2 || (total1 == total2 && id1 < id2);
+    }
+
+    /** Statistics of {@link #summarize} with the cursor of the thread collecting them. */
+    private static final class Statistics extends DoubleSummaryStatistics {
+        final PropertyStore.Cursor cursor;
+
+        Statistics(PropertyStore.Cursor cursor) {
+            this.cursor = cursor;
+        }
+    }
+
+    /** Mergeable state of {@link #summary()}; merged in encounter order. */
+    private static final class Aggregate {
+        final PropertyStore.Cursor cursor;
+        final DoubleSummaryStatistics pricePerSqm = new DoubleSummaryStatistics();
+        long count;
+        long totalPrice;
+        int cheapestId = -1;
+        long cheapestTotal;
+        int mostExpensiveId = -1;
+        long mostExpensiveTotal;
+
+        Aggregate(PropertyStore.Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        void add(int id, PropertyStore store) {
+            long total = store.totalPrice(id);
+            count++;
+            totalPrice += total;
+            pricePerSqm.accept(cursor.moveTo(id).getPrice());
+            offer(id, total, id, total);
+        }
+
+        void merge(Aggregate right) {
+            count += right.count;
+            totalPrice += right.totalPrice;
+            pricePerSqm.combine(right.pricePerSqm);
+            if (right.count > 0) offer(right.cheapestId, right.cheapestTotal, right.mostExpensiveId, right.mostExpensiveTotal);
+        }
+
+        private void offer(int low, long lowTotal, int high, long highTotal) {
+            if (cheapestId < 0 || lowTotal < cheapestTotal || (lowTotal == cheapestTotal && low < cheapestId)) {
+                cheapestId = low;
+                cheapestTotal = lowTotal;
+            }
+            if (mostExpensiveId < 0 || before(highTotal, high, mostExpensiveTotal, mostExpensiveId)) {
+                mostExpensiveId = high;
+                mostExpensiveTotal = highTotal;
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package realestate;
 
-import java.io.IOException;
 import java.util.logging.*;
 
 /**
@@ -13,17 +12,27 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
     protected double numberOfRooms;
     protected Genre genre;
 
-    private static final Logger logger = Logger.getLogger(RealEstate.class.getName());
+    // Id of the city in the shared CityDictionary, which pricing plans index their multipliers by
+    private final int cityId;
+
+    // Cached total price and the version of the PricingPlan it was computed with;
+    // written under the object's lock, UNPRICED while a new value is being stored
+    private static final int UNPRICED = 0;
+    private volatile long totalPrice;
+    private volatile int pricedVersion = UNPRICED;
+
+    // Hot paths log at FINE with lazily built messages; getters and compareTo do not log
+    private static final Logger logger = LoggerConfig.getLogger();
+
+    // getTotalPrice calls and cache misses; the hit rate is derived when exported
+    private static final MetricsRegistry.Counter PRICE_CALLS = MetricsRegistry.shared().counter("price.calls");
+    private static final MetricsRegistry.Counter PRICE_COMPUTED = MetricsRegistry.shared().counter("price.computed");
 
     static {
-        try {
-            Handler fileHandler = new FileHandler("realEstateApp.log", true);
-            fileHandler.setFormatter(new SimpleFormatter());
-            logger.addHandler(fileHandler);
-            logger.setUseParentHandlers(false); // Only log to file
-        } catch (IOException e) {
-            System.err.println("Failed to initialize logger: " + e.getMessage());
-        }
+        MetricsRegistry.shared().gauge("price.cacheHitPercent", () -> {
+            long calls = PRICE_CALLS.get();
+            return calls == 0 ? 0 : 100 * (calls - PRICE_COMPUTED.get()) / calls;
+        });
     }
 
     /**
@@ -35,12 +44,13 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      * @param genre the genre/type of property
      */
     public RealEstate(String city, double price, int sqm, double numberOfRooms, Genre genre) {
-        logger.info("Constructor called: RealEstate(" + city + ", " + price + ", " + sqm + ", " + numberOfRooms + ", " + genre + ")");
+        logger.fine(() -> "Constructor called: RealEstate(" + city + ", " + price + ", " + sqm + ", " + numberOfRooms + ", " + genre + ")");
         this.city = city;
         this.price = price;
         this.sqm = sqm;
         this.numberOfRooms = numberOfRooms;
         this.genre = genre;
+        this.cityId = city == null ? -1 : CityDictionary.shared().idOf(city);
     }
 
     /**
@@ -49,36 +59,53 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      */
     @Override
     public void makeDiscount(int percentage) {
-        logger.info("makeDiscount called with percentage: " + percentage);
+        logger.fine(() -> "makeDiscount called with percentage: " + percentage);
         try {
-            this.price = this.price * (100 - percentage) / 100.0;
-            logger.info("Price after discount: " + this.price);
+            synchronized (this) {
+                this.price = this.price * (100 - percentage) / 100.0;
+                invalidateTotalPrice();
+            }
+            logger.fine(() -> "Price after discount: " + this.price);
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error in makeDiscount: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Calculates the total price of the property considering city price multipliers.
+     * Stores a price per sqm discounted by {@link BulkDiscount}, which logs once for the whole
+     * operation instead of twice per listing.
+     * @param discounted the new price per sqm
+     */
+    synchronized void setDiscountedPrice(double discounted) {
+        this.price = discounted;
+        invalidateTotalPrice();
+    }
+
+    /**
+     * Returns the total price of the property considering city price multipliers.
+     * The value is computed on first use and cached until the price or the
+     * {@link PricingEngine#plan() pricing plan} changes.
      * @return the total price rounded to the nearest whole number
      */
     @Override
     public long getTotalPrice() {
-        logger.info("getTotalPrice called");
+        PRICE_CALLS.increment();
+        PricingPlan plan = PricingEngine.plan();
+        int version = pricedVersion;
+        long total = totalPrice;
+        if (version == plan.version() && pricedVersion == version) return total;
+
+        logger.finer("getTotalPrice called");
+        PRICE_COMPUTED.increment();
         try {
-            double basePrice = price * sqm;
-            double multiplier = 1.0;
-
-            if (city.equalsIgnoreCase("Budapest")) {
-                multiplier = 1.30;
-            } else if (city.equalsIgnoreCase("Debrecen")) {
-                multiplier = 1.20;
-            } else if (city.equalsIgnoreCase("Nyíregyháza")) {
-                multiplier = 1.15;
+            synchronized (this) {
+                total = computeTotalPrice(plan);
+                pricedVersion = UNPRICED;
+                totalPrice = total;
+                pricedVersion = plan.version();
             }
-
-            long total = Math.round(basePrice * multiplier);
-            logger.info("Calculated total price: " + total);
+            long computed = total;
+            logger.finer(() -> "Calculated total price: " + computed);
             return total;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error in getTotalPrice: " + e.getMessage(), e);
@@ -86,20 +113,38 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
         }
     }
 
+    /**
+     * Calculates the total price without the cache. Subclasses with their own pricing
+     * rules override this, not {@link #getTotalPrice()}.
+     * @param plan the pricing rules to apply
+     * @return the total price rounded to the nearest whole number
+     */
+    protected long computeTotalPrice(PricingPlan plan) {
+        return plan.totalPrice(price, sqm, plan.cityMultiplier(cityId));
+    }
+
+    /**
+     * Drops the cached total price; must be called, holding the object's lock, whenever a
+     * field it depends on changes.
+     */
+    protected void invalidateTotalPrice() {
+        pricedVersion = UNPRICED;
+    }
+
     /**
      * Calculates the average square meters per room.
      * @return the average sqm per room, or 0 if number of rooms is 0
      */
     @Override
     public double averageSqmPerRoom() {
-        logger.info("averageSqmPerRoom called");
+        logger.finer("averageSqmPerRoom called");
         try {
             if (numberOfRooms == 0) {
                 logger.warning("Number of rooms is zero in averageSqmPerRoom");
                 return 0;
             }
             double avg = sqm / numberOfRooms;
-            logger.info("Calculated avgSqmPerRoom: " + avg);
+            logger.finer(() -> "Calculated avgSqmPerRoom: " + avg);
             return avg;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error in averageSqmPerRoom: " + e.getMessage(), e);
@@ -113,11 +158,11 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      */
     @Override
     public String toString() {
-        logger.info("toString called");
+        logger.finer("toString called");
         try {
             String str = String.format("RealEstate [city=%s, price/m²=%.0f Ft, sqm=%d, rooms=%.1f, genre=%s, totalPrice=%d Ft, avgSqmPerRoom=%.2f]", 
                     city, price, sqm, numberOfRooms, genre, getTotalPrice(), averageSqmPerRoom());
-            logger.info("toString result: " + str);
+            logger.finer(() -> "toString result: " + str);
             return str;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error in toString: " + e.getMessage(), e);
@@ -132,11 +177,8 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      */
     @Override
     public int compareTo(RealEstate other) {
-        logger.info("compareTo called; comparing to another RealEstate's total price.");
         try {
-            int result = Long.compare(this.getTotalPrice(), other.getTotalPrice());
-            logger.info("compareTo result: " + result);
-            return result;
+            return Long.compare(this.getTotalPrice(), other.getTotalPrice());
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error in compareTo: " + e.getMessage(), e);
             return 0;
@@ -148,16 +190,19 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      * @return the city name
      */
     public String getCity() { 
-        logger.info("getCity called");  
         return city; 
     }
 
+    /** @return the id of the city in {@link CityDictionary#shared()}, -1 without a city */
+    int cityId() {
+        return cityId;
+    }
+
     /**
      * Gets the price per sqm.
      * @return price per square meter
      */
     public double getPrice() { 
-        logger.info("getPrice called");  
         return price; 
     }
 
@@ -166,7 +211,6 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      * @return size in sqm
      */
     public int getSqm() { 
-        logger.info("getSqm called");  
         return sqm; 
     }
 
@@ -175,7 +219,6 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      * @return number of rooms
      */
     public double getNumberOfRooms() { 
-        logger.info("getNumberOfRooms called");  
         return numberOfRooms; 
     }
 
@@ -184,7 +227,6 @@ public class RealEstate implements PropertyInterface, Comparable<RealEstate> {
      * @return genre
      */
     public Genre getGenre() { 
-        logger.info("getGenre called");  
         return genre; 
     }
 }
\ No newline at end of file
@@ -1,96 +1,438 @@
 package realestate;
 
 import java.io.*;
-import java.util.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 import java.util.logging.Logger;
 
 public class RealEstateAgent {
 
     private static final Logger log = LoggerConfig.getLogger();
 
-    // TreeSet ordered by total price (cheapest first)
-    private static final TreeSet<RealEstate> properties = new TreeSet<>(
-            Comparator.comparingLong(RealEstate::getTotalPrice)
-    );
+    // Every loaded listing, iterated cheapest first; kept outside the heap with --off-heap
+    private static PropertyStore properties = new PropertyStore();
 
+    private static final MetricsRegistry metrics = MetricsRegistry.shared();
+
+    // Records per second of the last file load
+    private static volatile long loadRate;
+
+    // Kept up to date while listings are loaded when running with --incremental, else null
+    private static IncrementalReport incrementalReport;
+
+    // Format of the report file, set with --format
+    private static ReportWriter.Format reportFormat = ReportWriter.Format.TEXT;
+
+    // Fed while listings are loaded when running with --analytics, else null
+    private static PortfolioAnalytics analytics;
+
+    // Whether to print the market cube, with --market
+    private static boolean market;
+
+    // Built on first use and kept up to date by the store from then on
+    private static MarketCube marketCube;
+
+    // Whether to drop repeated listings while loading, with --dedup; with a Bloom filter with
+    // --dedup=approximate
+    private static boolean dedup;
+    private static boolean approximateDedup;
+
+    /**
+     * Runs the agent: loads {@code realestates.txt} and writes the report.
+     * Files and directories named on the command line are loaded instead, all at once, see
+     * {@link IngestionService}; of a directory every {@code *.txt} file is loaded.
+     * {@code --parallel} loads the file on every core, {@code --parallel=N} on N workers.
+     * {@code --write-snapshot} saves what was loaded to {@code realestates.snap}, which later
+     * runs load instead of the text file as long as the snapshot is not older than it.
+     * {@code --incremental} maintains the report while listings are loaded instead of
+     * computing it afterwards.
+     * {@code --analytics} also prints price percentiles and the most expensive and cheapest
+     * listings per city and genre after the report, or {@code --analytics=K} the K of each.
+     * {@code --market} also prints the count and average prices of every city, genre and
+     * number of rooms, see {@link MarketCube}.
+     * {@code --format=csv} or {@code --format=jsonl} writes the report as CSV to
+     * {@code outputRealEstate.csv} or as JSON Lines to {@code outputRealEstate.jsonl}.
+     * {@code --watch} keeps running after the report and writes it again whenever the loaded
+     * files change, reading only what changed, see {@link ListingWatcher}.
+     * {@code --dedup} drops listings that repeat one loaded before, see
+     * {@link ListingDeduplicator}; {@code --dedup=approximate} uses less memory but may also
+     * drop about 1% of the distinct listings.
+     * {@code --off-heap} keeps the listings in memory outside the Java heap, and
+     * {@code --off-heap=FILE} in a file mapped into memory, see {@link PropertyStore#offHeap()}.
+     *
+     * @param args command line options
+     */
     public static void main(String[] args) {
         log.info("=== RealEstateAgent application started ===");
-        loadFromFile("realestates.txt");
-        generateReport();
+        int parallelism = 1;
+        boolean writeSnapshot = false;
+        boolean watch = false;
+        boolean incremental = false;
+        List<String> inputs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--write-snapshot")) {
+                writeSnapshot = true;
+            } else if (arg.startsWith("--format=")) {
+                try {
+                    reportFormat = ReportWriter.Format.of(arg.substring("--format=".length()));
+                } catch (IllegalArgumentException e) {
+                    log.warning("Unknown report format " + arg + ", writing text");
+                }
+            } else if (arg.equals("--watch")) {
+                watch = true;
+            } else if (arg.equals("--incremental")) {
+                incremental = true;
+            } else if (arg.equals("--dedup")) {
+                dedup = true;
+            } else if (arg.equals("--dedup=approximate")) {
+                dedup = true;
+                approximateDedup = true;
+            } else if (arg.equals("--off-heap")) {
+                properties = PropertyStore.offHeap();
+            } else if (arg.startsWith("--off-heap=")) {
+                properties = PropertyStore.offHeap(Paths.get(arg.substring("--off-heap=".length())));
+            } else if (arg.equals("--analytics")) {
+                analytics = new PortfolioAnalytics(PortfolioAnalytics.DEFAULT_K);
+            } else if (arg.startsWith("--analytics=")) {
+                int k = PortfolioAnalytics.DEFAULT_K;
+                try {
+                    k = Math.max(1, Integer.parseInt(arg.substring("--analytics=".length())));
+                } catch (NumberFormatException e) {
+                    log.warning("Invalid number of listings " + arg + ", printing " + k);
+                }
+                analytics = new PortfolioAnalytics(k);
+            } else if (arg.equals("--market")) {
+                market = true;
+            } else if (arg.equals("--parallel")) {
+                parallelism = Runtime.getRuntime().availableProcessors();
+            } else if (arg.startsWith("--parallel=")) {
+                try {
+                    parallelism = Math.max(1, Integer.parseInt(arg.substring("--parallel=".length())));
+                } catch (NumberFormatException e) {
+                    log.warning("Invalid number of workers " + arg + ", loading with " + parallelism);
+                }
+            } else if (!arg.startsWith("--")) {
+                inputs.add(arg);
+            } else {
+                log.warning("Ignoring unknown argument: " + arg);
+            }
+        }
+        if (incremental) incrementalReport = new IncrementalReport(properties);
+        if (analytics != null) properties.addListener(analytics);
+        startMetrics();
+        loadPricingRules("pricing.properties");
+        if (watch) {
+            if (writeSnapshot || parallelism > 1 || dedup) {
+                log.warning("--write-snapshot, --parallel and --dedup do not apply to --watch");
+            }
+            watch(inputs.isEmpty() ? List.of("realestates.txt") : inputs);
+        } else {
+            if (inputs.isEmpty()) {
+                loadFromFile("realestates.txt", parallelism);
+                if (writeSnapshot) saveSnapshot(PortfolioSnapshot.snapshotFileFor("realestates.txt"));
+            } else {
+                loadFromInputs(inputs);
+                if (writeSnapshot) log.warning("--write-snapshot only applies to realestates.txt, no snapshot written");
+            }
+            generateReport();
+            if (analytics != null) printAnalytics();
+            if (market) printMarket();
+        }
+        metrics.stopDump();
         log.info("=== Application finished successfully ===");
     }
 
     /**
      * Loads properties from the specified text file.
-     * Falls back to sample data if file is missing or corrupted.
+     * Falls back to sample data if the file is missing; after a read error keeps the
+     * properties read before it.
      *
      * @param filename name of the input file
+     * @param parallelism number of cores to parse on; 1 parses on the calling thread
      */
-    private static void loadFromFile(String filename) {
+    private static void loadFromFile(String filename, int parallelism) {
+        if (loadFromSnapshot(filename)) return;
         log.info("Attempting to load properties from file: " + filename);
 
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            int lineNumber = 0;
+        try {
+            long start = System.nanoTime();
+            ListingDeduplicator deduplicator = newDeduplicator(List.of(Paths.get(filename)));
+            if (parallelism > 1) {
+                ParallelListingLoader loader = new ParallelListingLoader(parallelism);
+                loader.load(Paths.get(filename), deduplicator, properties::add, RealEstateAgent::logParseError);
+                log.info("Parsed " + loader.getRecordCount() + " records from " + loader.getLineCount()
+                        + " lines (" + loader.getErrorCount() + " rejected, " + loader.getDuplicateCount()
+                        + " duplicates)");
+                recordLoad(start, loader.getRecordCount(), loader.getLineCount(), loader::getErrorCount);
+                metrics.counter("ingest.duplicates").add(loader.getDuplicateCount());
+            } else {
+                ListingParser parser = new ListingParser(
+                        deduplicator == null ? properties::add : deduplicator.filter(properties::add),
+                        RealEstateAgent::logParseError);
+                parser.parse(Paths.get(filename));
+                long duplicates = deduplicator == null ? 0 : deduplicator.duplicates();
+                log.info("Parsed " + parser.getRecordCount() + " records from " + parser.getLineCount()
+                        + " lines (" + parser.getErrorCount() + " rejected, " + duplicates + " duplicates)");
+                recordLoad(start, parser.getRecordCount(), parser.getLineCount(), parser::getErrorCount);
+                metrics.counter("ingest.duplicates").add(duplicates);
+            }
+            log.info("Successfully loaded " + properties.size() + " properties from file.");
+
+        } catch (NoSuchFileException e) {
+            log.severe("File not found: " + filename + " → Loading sample data instead.");
+            loadSampleData();
+        } catch (IOException e) {
+            // Listings read before the error are already in the store; sample data would mix with them
+            log.severe("IO error reading file: " + e.getMessage() + " → Keeping the " + properties.size()
+                    + " properties read so far.");
+        } catch (Exception e) {
+            log.severe("Unexpected error during file loading: " + e.getMessage() + " → Keeping the "
+                    + properties.size() + " properties read so far.");
+        }
+    }
+
+    /**
+     * Creates the deduplicator asked for on the command line. The approximate one is sized for
+     * as many listings as the files could hold at 32 bytes per line, more than they usually do.
+     *
+     * @param files the files about to be loaded
+     * @return the deduplicator, or null to keep every listing
+     */
+    private static ListingDeduplicator newDeduplicator(List<Path> files) {
+        if (!dedup) return null;
+        if (!approximateDedup) return ListingDeduplicator.exact();
+        long bytes = 0;
+        for (Path file : files) {
+            try {
+                bytes += Files.size(file);
+            } catch (IOException e) {
+                // Reported when the file is loaded
+            }
+        }
+        return newDeduplicator(bytes / 32);
+    }
 
-            while ((line = br.readLine()) != null) {
-                lineNumber++;
-                if (line.trim().isEmpty()) continue;
+    /**
+     * Creates the deduplicator asked for on the command line.
+     *
+     * @param expected the number of listings the approximate one is sized for
+     * @return the deduplicator, or null to keep every listing
+     */
+    private static ListingDeduplicator newDeduplicator(long expected) {
+        if (!dedup) return null;
+        if (!approximateDedup) return ListingDeduplicator.exact();
+        ListingDeduplicator deduplicator = ListingDeduplicator.approximate(Math.max(1, expected),
+                ListingDeduplicator.DEFAULT_FALSE_POSITIVE_RATE);
+        log.info("Dropping duplicates with a Bloom filter of " + deduplicator.memoryBytes() / 1024 + " KB");
+        return deduplicator;
+    }
 
-                String[] p = line.split("#");
-                if (p.length < 6) {
-                    log.warning("Skipping invalid line " + lineNumber + ": too few fields");
-                    continue;
-                }
+    /**
+     * Loads listings files, and the {@code *.txt} files of directories, at once.
+     * Never falls back to sample data: files that cannot be read are reported and left out.
+     *
+     * @param inputs names of files and directories
+     */
+    private static void loadFromInputs(List<String> inputs) {
+        List<Path> files = new ArrayList<>();
+        for (String input : inputs) {
+            Path path = Paths.get(input);
+            if (!Files.isDirectory(path)) {
+                files.add(path);
+                continue;
+            }
+            try {
+                files.addAll(IngestionService.filesIn(path));
+            } catch (IOException e) {
+                log.severe("Could not list directory " + input + ": " + e.getMessage());
+            }
+        }
+        if (files.isEmpty()) {
+            log.severe("No listings files found in " + inputs);
+            return;
+        }
+
+        LongAdder[] rejected = new LongAdder[ListingParser.ParseError.values().length];
+        for (int i = 0; i < rejected.length; i++) rejected[i] = new LongAdder();
+        long start = System.nanoTime();
+        try {
+            IngestionService.Result result = new IngestionService().load(files, newDeduplicator(files), properties::add,
+                    (file, lineNumber, error, line, detail) -> {
+                        rejected[error.ordinal()].increment();
+                        logParseError(file + ":" + lineNumber, error, line, detail);
+                    });
+            recordLoad(start, result.records(), result.lines(), error -> rejected[error.ordinal()].sum());
+            metrics.counter("ingest.files").add(result.files().size());
+            metrics.counter("ingest.files.failed").add(result.failures().size());
+            metrics.counter("ingest.duplicates").add(result.duplicates());
+            log.info("Parsed " + result.records() + " records from " + result.lines() + " lines ("
+                    + result.rejected() + " rejected, " + result.duplicates() + " duplicates) in "
+                    + files.size() + " file(s), " + result.failures().size() + " failed");
+            log.info("Successfully loaded " + properties.size() + " properties from " + files.size() + " file(s).");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.severe("Interrupted while loading " + files.size() + " file(s), " + properties.size() + " properties loaded");
+        }
+    }
 
+    /**
+     * Loads listings files, and the {@code *.txt} files of directories, writes the report and
+     * then writes it again after every change to them, until the process is stopped.
+     * Never falls back to sample data; files that do not exist yet are loaded once they appear.
+     *
+     * @param inputs names of files and directories
+     */
+    private static void watch(List<String> inputs) {
+        IngestionService.ErrorSink errors = (file, lineNumber, error, line, detail) ->
+                logParseError(file + ":" + lineNumber, error, line, detail);
+        try (ListingWatcher watcher = new ListingWatcher(properties, errors)) {
+            long start = System.nanoTime();
+            for (String input : inputs) {
+                Path path = Paths.get(input);
                 try {
-                    if (p[0].equals("REALESTATE")) {
-                        RealEstate re = new RealEstate(
-                            p[1],
-                            Double.parseDouble(p[2]),
-                            Integer.parseInt(p[3]),
-                            Double.parseDouble(p[4]),
-                            Genre.valueOf(p[5])
-                        );
-                        properties.add(re);
-                        log.info("Loaded RealEstate: " + p[1] + " (" + p[3] + " m²)");
-
-                    } else if (p[0].equals("PANEL")) {
-                        if (p.length < 8) {
-                            log.warning("Skipping invalid PANEL line " + lineNumber + ": missing floor/insulated");
-                            continue;
-                        }
-
-                        int floor = Integer.parseInt(p[6]);
-                        boolean insulated = p[7].equalsIgnoreCase("yes");
-
-                        Panel panel = new Panel(
-                            p[1],
-                            Double.parseDouble(p[2]),
-                            Integer.parseInt(p[3]),
-                            Double.parseDouble(p[4]),
-                            Genre.valueOf(p[5]),
-                            floor,
-                            insulated
-                        );
-                        properties.add(panel);
-                        log.info("Loaded Panel: " + p[1] + ", floor " + floor + ", insulated=" + insulated);
-                    }
-                } catch (Exception e) {
-                    log.severe("Error parsing line " + lineNumber + ": " + line + " → " + e.getMessage());
+                    if (Files.isDirectory(path)) watcher.watchDirectory(path);
+                    else watcher.watchFile(path);
+                } catch (IOException e) {
+                    log.severe("Could not watch " + input + ": " + e.getMessage());
                 }
             }
-            log.info("Successfully loaded " + properties.size() + " properties from file.");
+            recordLoad(start, properties.size(), 0, error -> 0);
+            log.info("Loaded " + properties.size() + " properties from " + watcher.fileCount()
+                    + " watched file(s), waiting for changes");
+            generateReport();
+            if (analytics != null) printAnalytics();
+            if (market) printMarket();
+            watcher.run(changes -> {
+                generateReport();
+                if (analytics != null) printAnalytics();
+                if (market) printMarket();
+            });
+        } catch (IOException e) {
+            log.severe("Could not watch " + inputs + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Watching interrupted");
+        }
+    }
 
-        } catch (FileNotFoundException e) {
-            log.severe("File not found: " + filename + " → Loading sample data instead.");
-            loadSampleData();
+    /**
+     * Loads the snapshot of a listings file instead of parsing it, if there is one that is not
+     * older than the file.
+     *
+     * @param filename name of the listings file
+     * @return whether the listings were loaded from the snapshot
+     */
+    private static boolean loadFromSnapshot(String filename) {
+        Path snapshot = Paths.get(PortfolioSnapshot.snapshotFileFor(filename));
+        Path text = Paths.get(filename);
+        try {
+            if (!Files.exists(snapshot)) return false;
+            if (Files.exists(text) && Files.getLastModifiedTime(snapshot).compareTo(Files.getLastModifiedTime(text)) < 0) {
+                log.info("Snapshot " + snapshot + " is older than " + filename + ", ignoring it");
+                return false;
+            }
+            long start = System.nanoTime();
+            PortfolioSnapshot listings = PortfolioSnapshot.open(snapshot);
+            // A snapshot keeps every listing of the file, duplicates too unless written with --dedup
+            ListingDeduplicator deduplicator = newDeduplicator(listings.size());
+            listings.forEach(deduplicator == null ? properties::add : deduplicator.filter(properties::add));
+            recordLoad(start, listings.size(), 0, error -> 0);
+            if (deduplicator != null) {
+                log.info("Dropped " + deduplicator.duplicates() + " duplicates from snapshot " + snapshot);
+                metrics.counter("ingest.duplicates").add(deduplicator.duplicates());
+            }
+            log.info("Successfully loaded " + properties.size() + " properties from snapshot " + snapshot);
+            return true;
+        } catch (IOException | PortfolioSnapshot.SnapshotException e) {
+            log.severe("Could not load snapshot " + snapshot + ": " + e.getMessage() + " → Parsing " + filename + " instead.");
+            properties.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Writes the loaded listings to a snapshot.
+     *
+     * @param filename name of the snapshot file
+     */
+    private static void saveSnapshot(String filename) {
+        try {
+            int written = PortfolioSnapshot.write(properties, Paths.get(filename));
+            log.info("Wrote " + written + " properties to snapshot " + filename);
         } catch (IOException e) {
-            log.severe("IO error reading file: " + e.getMessage() + " → Loading sample data.");
-            loadSampleData();
-        } catch (Exception e) {
-            log.severe("Unexpected error during file loading: " + e.getMessage());
-            loadSampleData();
+            log.severe("Could not write snapshot " + filename + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the counts of a finished load; the parsers count per line themselves, so
+     * loading is not slowed down by the metrics.
+     */
+    private static void recordLoad(long startNanos, long records, long lines,
+                                   ToLongFunction<ListingParser.ParseError> errors) {
+        long nanos = System.nanoTime() - startNanos;
+        metrics.histogram("ingest.load.nanos").record(nanos);
+        metrics.counter("ingest.records").add(records);
+        metrics.counter("ingest.lines").add(lines);
+        for (ListingParser.ParseError error : ListingParser.ParseError.values()) {
+            metrics.counter("ingest.rejected." + error).add(errors.applyAsLong(error));
+        }
+        loadRate = nanos == 0 ? 0 : records * 1_000_000_000L / nanos;
+    }
+
+    /**
+     * Registers the metrics MBean and, if {@code -Drealestate.metrics.file} is set, dumps the
+     * metrics to that file every {@code -Drealestate.metrics.interval} milliseconds (default
+     * 10000), as JSON when the file name ends in {@code .json}.
+     */
+    private static void startMetrics() {
+        metrics.gauge("ingest.recordsPerSecond", () -> loadRate);
+        metrics.registerMBean();
+        String file = System.getProperty("realestate.metrics.file");
+        if (file != null) {
+            metrics.startDump(Paths.get(file), Long.getLong("realestate.metrics.interval", 10_000L));
+        }
+    }
+
+    /** Logs a line rejected by the {@link ListingParser} */
+    private static void logParseError(long lineNumber, ListingParser.ParseError error, String line, String detail) {
+        logParseError(String.valueOf(lineNumber), error, line, detail);
+    }
+
+    /** Logs a rejected line, located by its line number and possibly its file */
+    private static void logParseError(String lineNumber, ListingParser.ParseError error, String line, String detail) {
+        switch (error) {
+            case TOO_FEW_FIELDS -> log.warning("Skipping invalid line " + lineNumber + ": too few fields");
+            case MISSING_PANEL_FIELDS -> log.warning("Skipping invalid PANEL line " + lineNumber + ": missing floor/insulated");
+            default -> log.severe("Error parsing line " + lineNumber + ": " + line + " → " + detail);
+        }
+    }
+
+    /**
+     * Puts the pricing rules of the given file in force, if the file exists.
+     * Keeps the built-in rules when it does not or when it is invalid.
+     *
+     * @param filename name of the rules file
+     */
+    private static void loadPricingRules(String filename) {
+        Path rules = Paths.get(filename);
+        if (!Files.exists(rules)) {
+            log.info("No " + filename + " found, using built-in pricing rules");
+            return;
+        }
+        try {
+            PricingEngine.reload(rules, properties);
+        } catch (IOException | IllegalArgumentException e) {
+            log.severe("Could not load pricing rules from " + filename + ": " + e.getMessage() + " → Keeping current rules.");
         }
     }
 
@@ -105,6 +447,37 @@ public class RealEstateAgent {
         log.info("Sample data loaded: " + properties.size() + " properties");
     }
 
+    /** Prints the price analytics gathered while loading; they are not part of the saved report */
+    private static void printAnalytics() {
+        long start = System.nanoTime();
+        if (analytics.isStale()) {
+            properties.removeListener(analytics);
+            analytics = PortfolioAnalytics.of(properties, analytics.k());
+            properties.addListener(analytics);
+        }
+        String text = analytics.toText();
+        metrics.histogram("analytics.nanos").recordSince(start);
+        System.out.println();
+        System.out.print(text);
+        log.info("Analytics of " + analytics.count() + " properties printed");
+    }
+
+    /**
+     * Prints the market cube, which is not part of the saved report. Only the cells whose
+     * listings changed since the last time are computed again.
+     */
+    private static void printMarket() {
+        long start = System.nanoTime();
+        if (marketCube == null) marketCube = new MarketCube(properties, MarketCube.DEFAULT_CAPACITY);
+        long misses = marketCube.misses();
+        String text = marketCube.toText();
+        metrics.histogram("market.nanos").recordSince(start);
+        System.out.println();
+        System.out.print(text);
+        log.info("Market of " + marketCube.cellCount() + " cells printed, " + (marketCube.misses() - misses)
+                + " computed again, " + marketCube.invalidations() + " invalidated so far");
+    }
+
     /** Generates the full statistical report and saves it to file */
     private static void generateReport() {
         log.info("Generating statistical report...");
@@ -115,61 +488,21 @@ public class RealEstateAgent {
             return;
         }
 
-        StringBuilder sb = new StringBuilder();
-
-        // 1 & 6 – Average square meter price
-        double avgSqmPrice = properties.stream()
-                .mapToDouble(RealEstate::getPrice)
-                .average().orElse(0);
-        sb.append(String.format("Average square meter price of real estate: %.0f Ft/m²\n", avgSqmPrice));
-
-        // 2 – Cheapest property
-        RealEstate cheapest = properties.first();
-        sb.append(String.format("The price of the cheapest property: %d Ft\n", cheapest.getTotalPrice()));
-
-        // 3 – Most expensive Budapest condominium → avg sqm/room
-        double budapestBestAvgSqmPerRoom = properties.stream()
-                .filter(p -> "budapest".equalsIgnoreCase(p.getCity()))
-                .filter(p -> p.getGenre() == Genre.CONDOMINIUM)
-                .max(Comparator.comparingLong(RealEstate::getTotalPrice))
-                .map(RealEstate::averageSqmPerRoom)
-                .orElse(0.0);
-        sb.append(String.format("The average square meter value per room of the most expensive apartment in Budapest: %.2f m²/room\n",
-                budapestBestAvgSqmPerRoom));
-
-        // 4 & 7 – Total price of all properties
-        long totalAll = properties.stream()
-                .mapToLong(RealEstate::getTotalPrice)
-                .sum();
-        sb.append(String.format("The total price of the properties: %d Ft\n", totalAll));
-
-        // 5 – Condominium properties ≤ average total price
-        long avgTotalPrice = (long) properties.stream()
-                .mapToLong(RealEstate::getTotalPrice)
-                .average().orElse(0);
-
-        sb.append("List of condominium properties whose total price does not exceed the average price of properties:\n");
-        properties.stream()
-                .filter(p -> p.getGenre() == Genre.CONDOMINIUM)
-                .filter(p -> p.getTotalPrice() <= avgTotalPrice)
-                .sorted(Comparator.comparingLong(RealEstate::getTotalPrice))
-                .forEach(p -> sb.append(String.format("  - %s (%s) – %d Ft\n",
-                        p.getCity(), p instanceof Panel ? "Panel" : "RealEstate", p.getTotalPrice())));
-
-        // Repeat 1 and 7 as required
-        sb.append(String.format("Average square meter price of real estate: %.0f Ft/m²\n", avgSqmPrice));
-        sb.append(String.format("The total price of the properties: %d Ft\n", totalAll));
-
-        // Output to console
-        System.out.println(sb);
-
-        // Save to file
-        try (PrintWriter pw = new PrintWriter("outputRealEstate.txt")) {
-            pw.print(sb);
-            log.info("Report successfully saved to outputRealEstate.txt");
-            System.out.println("\nReport saved to outputRealEstate.txt");
-        } catch (FileNotFoundException e) {
+        // Written to the console and the file at once, as it is computed
+        Path file = Paths.get("outputRealEstate." + reportFormat.extension());
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             ReportWriter out = new ReportWriter(reportFormat, Channels.newChannel(System.out), channel)) {
+            if (incrementalReport != null) out.write(incrementalReport.report());
+            else ReportEngine.write(properties, out);
+            out.flush();
+            System.out.println();
+            log.info("Report successfully saved to " + file);
+            System.out.println("\nReport saved to " + file);
+        } catch (IOException e) {
             log.severe("Could not save report file: " + e.getMessage());
         }
+        metrics.histogram("report.write.nanos").recordSince(start);
     }
 }
\ No newline at end of file
@@ -0,0 +1,225 @@
+package realestate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Computes the statistical report of {@link RealEstateAgent}.
+ * <p>
+ * A {@link PropertyStore} is reported on with three {@link Query queries}: a summary of every
+ * listing (one pass in price order, in parallel for large portfolios), the most expensive
+ * Budapest condominium, and the condominiums costing at most the average. The planner serves
+ * the last two from the city, genre and price indexes instead of scanning.
+ * {@link #write} streams the condominiums from the price index into a {@link ReportWriter}
+ * instead of collecting them.
+ * <p>
+ * Other portfolios feed an {@link Accumulator} in a single pass instead: it keeps the sqm
+ * price statistics, the sum of total prices, the most expensive Budapest condominium and the
+ * condominiums themselves, which are the only candidates for the list of affordable ones.
+ * Partial accumulators are merged in encounter order. Since the candidates are collected
+ * cheapest first, the affordable condominiums are a prefix of them and the second step is a
+ * binary search instead of another pass.
+ */
+public class ReportEngine {
+
+    // Latency of the two sections of compute(), in nanoseconds
+    private static final MetricsRegistry.Histogram PASS_NANOS = MetricsRegistry.shared().histogram("report.pass.nanos");
+    private static final MetricsRegistry.Histogram FINISH_NANOS = MetricsRegistry.shared().histogram("report.finish.nanos");
+
+    /** One listed condominium of the report. */
+    public record Entry(String city, boolean panel, long totalPrice) {}
+
+    /**
+     * The finished report.
+     * @param count number of listings
+     * @param averageSqmPrice average price per square meter
+     * @param cheapestTotalPrice total price of the cheapest listing
+     * @param budapestBestAvgSqmPerRoom average sqm per room of the most expensive Budapest condominium, 0 if none
+     * @param totalPrice sum of all total prices
+     * @param averageTotalPrice average total price, truncated
+     * @param affordableCondominiums condominiums whose total price does not exceed the average, cheapest first
+     */
+    public record Report(long count, double averageSqmPrice, long cheapestTotalPrice, double budapestBestAvgSqmPerRoom,
+                         long totalPrice, long averageTotalPrice, List<Entry> affordableCondominiums) {
+
+        /** @return the report text, as written to {@code outputRealEstate.txt} */
+        public String toText() {
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            try (ReportWriter out = new ReportWriter(ReportWriter.Format.TEXT, Channels.newChannel(text))) {
+                out.write(this);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // not thrown by an in-memory stream
+            }
+            return text.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Mergeable state of the single pass. Listings must be added in price order and a
+     * right-hand accumulator merged into the left-hand one.
+     */
+    static final class Accumulator {
+        final DoubleSummaryStatistics sqmPrice = new DoubleSummaryStatistics();
+        long count;
+        long totalPrice;
+        int budapestBestId = -1;
+        long budapestBestTotal;
+        int[] condoIds = new int[16];
+        long[] condoTotals = new long[16];
+        int condoCount;
+
+        void add(int id, RealEstate p, long total) {
+            count++;
+            sqmPrice.accept(p.getPrice());
+            totalPrice += total;
+            if (p.getGenre() == Genre.CONDOMINIUM) {
+                // Strictly greater keeps the first of equal maxima, as Stream.max does
+                if ("budapest".equalsIgnoreCase(p.getCity()) && (budapestBestId < 0 || total > budapestBestTotal)) {
+                    budapestBestId = id;
+                    budapestBestTotal = total;
+                }
+                if (condoCount == condoIds.length) {
+                    condoIds = Arrays.copyOf(condoIds, condoCount * 2);
+                    condoTotals = Arrays.copyOf(condoTotals, condoCount * 2);
+                }
+                condoIds[condoCount] = id;
+                condoTotals[condoCount++] = total;
+            }
+        }
+
+        void merge(Accumulator right) {
+            count += right.count;
+            sqmPrice.combine(right.sqmPrice);
+            totalPrice += right.totalPrice;
+            if (right.budapestBestId >= 0 && (budapestBestId < 0 || right.budapestBestTotal > budapestBestTotal)) {
+                budapestBestId = right.budapestBestId;
+                budapestBestTotal = right.budapestBestTotal;
+            }
+            if (right.condoCount > 0) {
+                int n = condoCount + right.condoCount;
+                if (n > condoIds.length) {
+                    condoIds = Arrays.copyOf(condoIds, n);
+                    condoTotals = Arrays.copyOf(condoTotals, n);
+                }
+                System.arraycopy(right.condoIds, 0, condoIds, condoCount, right.condoCount);
+                System.arraycopy(right.condoTotals, 0, condoTotals, condoCount, right.condoCount);
+                condoCount = n;
+            }
+        }
+    }
+
+    private ReportEngine() {
+    }
+
+    /**
+     * Computes the report of a non-empty store.
+     * @param store the listings
+     * @return the report
+     */
+    public static Report compute(PropertyStore store) {
+        Report summary = summarize(store);
+        long start = System.nanoTime();
+        int[] ids = affordableCondominiums(store, summary.averageTotalPrice()).ids();
+        List<Entry> affordable = new ArrayList<>(ids.length);
+        PropertyStore.Cursor p = store.cursor();
+        for (int id : ids) {
+            p.moveTo(id);
+            affordable.add(new Entry(p.getCity(), p.isPanel(), store.totalPrice(id)));
+        }
+        Report report = new Report(summary.count(), summary.averageSqmPrice(), summary.cheapestTotalPrice(),
+                summary.budapestBestAvgSqmPerRoom(), summary.totalPrice(), summary.averageTotalPrice(), affordable);
+        FINISH_NANOS.recordSince(start);
+        return report;
+    }
+
+    /**
+     * Computes the report of a non-empty store and writes it as it goes: the condominiums are
+     * written straight from the price index, so memory use does not depend on how many of
+     * them are listed. The store must not change meanwhile.
+     * @param store the listings
+     * @param out where to write the report; it is flushed, not closed
+     * @throws IOException if writing fails
+     */
+    public static void write(PropertyStore store, ReportWriter out) throws IOException {
+        Report summary = summarize(store);
+        long start = System.nanoTime();
+        out.begin(summary);
+        PropertyStore.Cursor p = store.cursor();
+        try {
+            affordableCondominiums(store, summary.averageTotalPrice()).forEach(id -> {
+                p.moveTo(id);
+                try {
+                    out.condominium(p.getCity(), p.isPanel(), store.totalPrice(id));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.end();
+        FINISH_NANOS.recordSince(start);
+    }
+
+    /** @return the report of a non-empty store without its list of condominiums */
+    private static Report summarize(PropertyStore store) {
+        if (store.isEmpty()) throw new IllegalArgumentException("No properties to report on");
+        long start = System.nanoTime();
+        Query.Summary all = Query.on(store).summary();
+        long averageTotal = (long) ((double) all.totalPrice() / all.count());
+        int budapestBest = Query.on(store).city("Budapest").genre(Genre.CONDOMINIUM).mostExpensive();
+        double budapestBestAvg = budapestBest < 0 ? 0.0 : store.cursor().moveTo(budapestBest).averageSqmPerRoom();
+        PASS_NANOS.recordSince(start);
+        return new Report(all.count(), all.averagePricePerSqm(), store.totalPrice(all.cheapestId()),
+                budapestBestAvg, all.totalPrice(), averageTotal, List.of());
+    }
+
+    /** @return the condominiums costing at most the average, the list of the report */
+    private static Query affordableCondominiums(PropertyStore store, long averageTotal) {
+        return Query.on(store).genre(Genre.CONDOMINIUM).totalPriceAtMost(averageTotal);
+    }
+
+    /**
+     * Builds the report from a finished pass.
+     * @param listings looks up the listings the accumulator holds ids of
+     * @param acc the accumulator, fed in price order
+     * @param cheapestTotal total price of the cheapest listing
+     * @return the report
+     */
+    static Report finish(IntFunction<? extends RealEstate> listings, Accumulator acc, long cheapestTotal) {
+        double averageSqmPrice = acc.sqmPrice.getAverage();
+        long averageTotal = (long) ((double) acc.totalPrice / acc.count);
+        double budapestBest = acc.budapestBestId < 0 ? 0.0 : listings.apply(acc.budapestBestId).averageSqmPerRoom();
+
+        // Candidates are cheapest first, so the affordable ones are a prefix
+        int end = upperBound(acc.condoTotals, acc.condoCount, averageTotal);
+        List<Entry> affordable = new ArrayList<>(end);
+        for (int i = 0; i < end; i++) {
+            RealEstate p = listings.apply(acc.condoIds[i]);
+            affordable.add(new Entry(p.getCity(), p instanceof Panel, acc.condoTotals[i]));
+        }
+
+        return new Report(acc.count, averageSqmPrice, cheapestTotal, budapestBest,
+                acc.totalPrice, averageTotal, affordable);
+    }
+
+    /** @return the number of leading values that are at most {@code limit} */
+    private static int upperBound(long[] sorted, int size, long limit) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] <= limit) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,378 @@
+package realestate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Writes the report of {@link ReportEngine} piece by piece, as it is produced, into one or more
+ * channels.
+ * <p>
+ * A report is written as {@link #begin} with the summary figures, one {@link #condominium}
+ * call per listed condominium, and {@link #end}. Output goes through one direct buffer of
+ * {@value #BUFFER_SIZE} bytes that is written to every channel whenever it fills up, so memory
+ * use does not depend on the number of listings. Numbers are written digit by digit instead of
+ * through {@link String#format}; the text format is the same as before, with '.' as the
+ * decimal separator whatever the default locale, and everything is UTF-8.
+ * <p>
+ * Not thread-safe. Closing the writer flushes it; it closes only the channel it opened itself
+ * in {@link #toFile}.
+ */
+public final class ReportWriter implements Closeable {
+
+    /** The output formats. */
+    public enum Format {
+        /** The text of {@code outputRealEstate.txt}. */
+        TEXT("txt"),
+        /** A header, then one row per summary figure and one per listed condominium. */
+        CSV("csv"),
+        /** JSON Lines: one object with the summary figures, then one per listed condominium. */
+        JSONL("jsonl");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /** @return the usual file name extension, without the dot */
+        public String extension() {
+            return extension;
+        }
+
+        /**
+         * @param name a format name, such as {@code csv}, in any case
+         * @return the format
+         * @throws IllegalArgumentException if there is no such format
+         */
+        public static Format of(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] TEXT_AVERAGE_SQM = utf8("Average square meter price of real estate: ");
+    private static final byte[] TEXT_SQM_PRICE_UNIT = utf8(" Ft/m²\n");
+    private static final byte[] TEXT_CHEAPEST = utf8("The price of the cheapest property: ");
+    private static final byte[] TEXT_BUDAPEST = utf8("The average square meter value per room of the most expensive apartment in Budapest: ");
+    private static final byte[] TEXT_SQM_PER_ROOM_UNIT = utf8(" m²/room\n");
+    private static final byte[] TEXT_TOTAL = utf8("The total price of the properties: ");
+    private static final byte[] TEXT_FT = utf8(" Ft\n");
+    private static final byte[] TEXT_LIST = utf8("List of condominium properties whose total price does not exceed the average price of properties:\n");
+    private static final byte[] TEXT_ITEM = utf8("  - ");
+    private static final byte[] TEXT_PANEL = utf8(" (Panel) – ");
+    private static final byte[] TEXT_REAL_ESTATE = utf8(" (RealEstate) – ");
+
+    private static final byte[] CSV_HEADER = utf8("section,name,city,property_type,value\n");
+    private static final byte[] CSV_COUNT = utf8("summary,count,,,");
+    private static final byte[] CSV_AVERAGE_SQM = utf8("summary,average_sqm_price,,,");
+    private static final byte[] CSV_CHEAPEST = utf8("summary,cheapest_total_price,,,");
+    private static final byte[] CSV_BUDAPEST = utf8("summary,budapest_best_avg_sqm_per_room,,,");
+    private static final byte[] CSV_TOTAL = utf8("summary,total_price,,,");
+    private static final byte[] CSV_AVERAGE_TOTAL = utf8("summary,average_total_price,,,");
+    private static final byte[] CSV_ITEM = utf8("affordable_condominium,,");
+    private static final byte[] CSV_PANEL = utf8(",Panel,");
+    private static final byte[] CSV_REAL_ESTATE = utf8(",RealEstate,");
+
+    private static final byte[] JSON_COUNT = utf8("{\"section\":\"summary\",\"count\":");
+    private static final byte[] JSON_AVERAGE_SQM = utf8(",\"averageSqmPrice\":");
+    private static final byte[] JSON_CHEAPEST = utf8(",\"cheapestTotalPrice\":");
+    private static final byte[] JSON_BUDAPEST = utf8(",\"budapestBestAvgSqmPerRoom\":");
+    private static final byte[] JSON_TOTAL = utf8(",\"totalPrice\":");
+    private static final byte[] JSON_AVERAGE_TOTAL = utf8(",\"averageTotalPrice\":");
+    private static final byte[] JSON_ITEM = utf8("{\"section\":\"affordableCondominium\",\"city\":\"");
+    private static final byte[] JSON_PANEL = utf8("\",\"type\":\"Panel\",\"totalPrice\":");
+    private static final byte[] JSON_REAL_ESTATE = utf8("\",\"type\":\"RealEstate\",\"totalPrice\":");
+    private static final byte[] JSON_NULL = utf8("null");
+    private static final byte[] LINE_END = utf8("}\n");
+
+    private static final byte[] MIN_LONG = utf8(Long.toString(Long.MIN_VALUE));
+    private static final byte[] NAN = utf8("NaN");
+    private static final byte[] INFINITY = utf8("Infinity");
+
+    private final Format format;
+    private final WritableByteChannel[] channels;
+    private final boolean ownsChannel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final byte[] digits = new byte[20];
+
+    // Repeated at the end of the text format
+    private double averageSqmPrice;
+    private long totalPrice;
+
+    /**
+     * Creates a writer into channels that stay open after the writer is closed.
+     * @param format the output format
+     * @param channels where to write; each gets the whole report
+     */
+    public ReportWriter(Format format, WritableByteChannel... channels) {
+        this(format, false, channels);
+    }
+
+    private ReportWriter(Format format, boolean ownsChannel, WritableByteChannel... channels) {
+        this.format = format;
+        this.channels = channels.clone();
+        this.ownsChannel = ownsChannel;
+    }
+
+    /**
+     * Creates a writer into a file, which is replaced; closing the writer closes the file.
+     * @param file the file
+     * @param format the output format
+     * @return the writer
+     * @throws IOException if the file cannot be opened
+     */
+    public static ReportWriter toFile(Path file, Format format) throws IOException {
+        return new ReportWriter(format, true, FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    /** @return the output format */
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * Writes a whole report.
+     * @param report the report
+     * @throws IOException if writing fails
+     */
+    public void write(ReportEngine.Report report) throws IOException {
+        begin(report);
+        for (ReportEngine.Entry e : report.affordableCondominiums()) condominium(e.city(), e.panel(), e.totalPrice());
+        end();
+    }
+
+    /**
+     * Writes the summary figures of a report; its list of condominiums is not written.
+     * @param report the report
+     * @throws IOException if writing fails
+     */
+    public void begin(ReportEngine.Report report) throws IOException {
+        averageSqmPrice = report.averageSqmPrice();
+        totalPrice = report.totalPrice();
+        switch (format) {
+            case TEXT -> {
+                put(TEXT_AVERAGE_SQM); putFixed(report.averageSqmPrice(), 0); put(TEXT_SQM_PRICE_UNIT);
+                put(TEXT_CHEAPEST); putLong(report.cheapestTotalPrice()); put(TEXT_FT);
+                put(TEXT_BUDAPEST); putFixed(report.budapestBestAvgSqmPerRoom(), 2); put(TEXT_SQM_PER_ROOM_UNIT);
+                put(TEXT_TOTAL); putLong(report.totalPrice()); put(TEXT_FT);
+                put(TEXT_LIST);
+            }
+            case CSV -> {
+                put(CSV_HEADER);
+                put(CSV_COUNT); putLong(report.count()); putByte('\n');
+                put(CSV_AVERAGE_SQM); putFixed(report.averageSqmPrice(), 0); putByte('\n');
+                put(CSV_CHEAPEST); putLong(report.cheapestTotalPrice()); putByte('\n');
+                put(CSV_BUDAPEST); putFixed(report.budapestBestAvgSqmPerRoom(), 2); putByte('\n');
+                put(CSV_TOTAL); putLong(report.totalPrice()); putByte('\n');
+                put(CSV_AVERAGE_TOTAL); putLong(report.averageTotalPrice()); putByte('\n');
+            }
+            case JSONL -> {
+                put(JSON_COUNT); putLong(report.count());
+                put(JSON_AVERAGE_SQM); putJsonFixed(report.averageSqmPrice(), 0);
+                put(JSON_CHEAPEST); putLong(report.cheapestTotalPrice());
+                put(JSON_BUDAPEST); putJsonFixed(report.budapestBestAvgSqmPerRoom(), 2);
+                put(JSON_TOTAL); putLong(report.totalPrice());
+                put(JSON_AVERAGE_TOTAL); putLong(report.averageTotalPrice());
+                put(LINE_END);
+            }
+        }
+    }
+
+    /**
+     * Writes one listed condominium.
+     * @param city its city
+     * @param panel whether it is a panel flat
+     * @param total its total price
+     * @throws IOException if writing fails
+     */
+    public void condominium(String city, boolean panel, long total) throws IOException {
+        switch (format) {
+            case TEXT -> {
+                put(TEXT_ITEM); putString(city, Format.TEXT); put(panel ? TEXT_PANEL : TEXT_REAL_ESTATE);
+                putLong(total); put(TEXT_FT);
+            }
+            case CSV -> {
+                put(CSV_ITEM); putString(city, Format.CSV); put(panel ? CSV_PANEL : CSV_REAL_ESTATE);
+                putLong(total); putByte('\n');
+            }
+            case JSONL -> {
+                put(JSON_ITEM); putString(city, Format.JSONL); put(panel ? JSON_PANEL : JSON_REAL_ESTATE);
+                putLong(total); put(LINE_END);
+            }
+        }
+    }
+
+    /**
+     * Finishes the report and writes out what is buffered.
+     * @throws IOException if writing fails
+     */
+    public void end() throws IOException {
+        if (format == Format.TEXT) {
+            put(TEXT_AVERAGE_SQM); putFixed(averageSqmPrice, 0); put(TEXT_SQM_PRICE_UNIT);
+            put(TEXT_TOTAL); putLong(totalPrice); put(TEXT_FT);
+        }
+        flush();
+    }
+
+    /**
+     * Writes out what is buffered.
+     * @throws IOException if writing fails
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        for (WritableByteChannel channel : channels) {
+            ByteBuffer pending = buffer.duplicate();
+            while (pending.hasRemaining()) channel.write(pending);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (ownsChannel) {
+                for (WritableByteChannel channel : channels) channel.close();
+            }
+        }
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (buffer.remaining() < bytes.length) {
+            flush();
+            if (bytes.length > BUFFER_SIZE) {
+                for (byte b : bytes) putByte(b);
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    private void putByte(int b) throws IOException {
+        if (!buffer.hasRemaining()) flush();
+        buffer.put((byte) b);
+    }
+
+    private void putLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            put(MIN_LONG);
+            return;
+        }
+        if (buffer.remaining() < digits.length) flush();
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int n = digits.length;
+        do {
+            digits[--n] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, n, digits.length - n);
+    }
+
+    /**
+     * Writes a number with a fixed number of decimals, as {@code %.<decimals>f} does: the
+     * shortest decimal form of the double rounded half up.
+     */
+    private void putFixed(double value, int decimals) throws IOException {
+        if (Double.isNaN(value)) {
+            put(NAN);
+            return;
+        }
+        if (Double.isInfinite(value)) {
+            if (value < 0) putByte('-');
+            put(INFINITY);
+            return;
+        }
+        if (decimals == 0 && Math.abs(value) < 1e15 && value == Math.rint(value) && value != 0) {
+            putLong((long) value); // already whole, nothing to round
+            return;
+        }
+        BigDecimal rounded = new BigDecimal(Double.toString(value)).setScale(decimals, RoundingMode.HALF_UP);
+        // A negative value that rounds to zero keeps its sign, as with String.format
+        if (rounded.signum() == 0 && (value < 0 || 1 / value < 0)) putByte('-');
+        putAscii(rounded.toPlainString());
+    }
+
+    private void putJsonFixed(double value, int decimals) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) put(JSON_NULL);
+        else putFixed(value, decimals);
+    }
+
+    private void putAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) putByte(s.charAt(i));
+    }
+
+    /** Writes a string as UTF-8, quoted and escaped as the format needs. */
+    private void putString(String s, Format as) throws IOException {
+        boolean quote = as == Format.CSV && needsCsvQuotes(s);
+        if (quote) putByte('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (as == Format.CSV && c == '"') {
+                putByte('"');
+                putByte('"');
+            } else if (as == Format.JSONL && (c == '"' || c == '\\' || c < 0x20)) {
+                putJsonEscape(c);
+            } else if (c < 0x80) {
+                putByte(c);
+            } else if (c < 0x800) {
+                putByte(0xC0 | c >> 6);
+                putByte(0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                putByte(0xF0 | cp >> 18);
+                putByte(0x80 | cp >> 12 & 0x3F);
+                putByte(0x80 | cp >> 6 & 0x3F);
+                putByte(0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                putByte('?'); // unpaired, as String.getBytes replaces it
+            } else {
+                putByte(0xE0 | c >> 12);
+                putByte(0x80 | c >> 6 & 0x3F);
+                putByte(0x80 | c & 0x3F);
+            }
+        }
+        if (quote) putByte('"');
+    }
+
+    private void putJsonEscape(char c) throws IOException {
+        putByte('\\');
+        switch (c) {
+            case '"', '\\' -> putByte(c);
+            case '\n' -> putByte('n');
+            case '\r' -> putByte('r');
+            case '\t' -> putByte('t');
+            default -> {
+                putAscii("u00");
+                putByte(Character.forDigit(c >> 4, 16));
+                putByte(Character.forDigit(c & 0xF, 16));
+            }
+        }
+    }
+
+    private static boolean needsCsvQuotes(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,12 +1,26 @@
 package realestate;
 
 import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.*;
-import javax.imageio.ImageIO;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
 
 public class TestRunner {
+
+    /**
+     * Runs the harness, or with a text file argument renders that file, such as a saved
+     * report, into pages in {@code docs/screenshots} or the directory given after it.
+     *
+     * @param args nothing, or a text file and optionally an output directory
+     */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            renderFile(Paths.get(args[0]), Paths.get(args.length > 1 ? args[1] : "docs/screenshots"));
+            return;
+        }
         try {
             StringBuilder out = new StringBuilder();
 
@@ -65,40 +79,28 @@ public class TestRunner {
     }
 
     private static void textToImage(String text, File outFile) throws IOException {
-        String[] lines = text.split("\n");
-
-        Font font = new Font("Consolas", Font.PLAIN, 14);
-        BufferedImage tmp = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = tmp.createGraphics();
-        g2d.setFont(font);
-        FontMetrics fm = g2d.getFontMetrics();
-        int lineHeight = fm.getHeight();
-        int maxWidth = 0;
-        for (String line : lines) {
-            int w = fm.stringWidth(line);
-            if (w > maxWidth) maxWidth = w;
-        }
-        g2d.dispose();
-
-        int padding = 12;
-        int width = Math.max(300, maxWidth + padding * 2);
-        int height = Math.max(200, lineHeight * lines.length + padding * 2);
-
-        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        g2d = img.createGraphics();
-        g2d.setColor(Color.WHITE);
-        g2d.fillRect(0, 0, width, height);
-        g2d.setColor(Color.BLACK);
-        g2d.setFont(font);
-        fm = g2d.getFontMetrics();
-
-        int y = padding + fm.getAscent();
-        for (String line : lines) {
-            g2d.drawString(line, padding, y);
-            y += lineHeight;
+        String name = outFile.getName().replaceFirst("\\.png$", "");
+        renderer().render(text, outFile.getAbsoluteFile().getParentFile().toPath(), name);
+    }
+
+    /** Renders a text file page by page and prints the time taken by every page */
+    private static void renderFile(Path text, Path outDir) {
+        String name = text.getFileName().toString().replaceFirst("\\.[^.]*$", "");
+        long start = System.nanoTime();
+        try (BufferedReader in = Files.newBufferedReader(text, StandardCharsets.UTF_8)) {
+            List<TextPageRenderer.Page> pages = renderer().render(in, outDir, name);
+            for (TextPageRenderer.Page page : pages) {
+                System.out.println(page.file() + ": lines " + page.firstLine() + "-" + (page.firstLine() + page.lines() - 1)
+                        + ", " + page.width() + "x" + page.height() + ", " + page.nanos() / 1_000_000 + " ms");
+            }
+            System.out.println(pages.size() + " page(s) written in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        g2d.dispose();
+    }
 
-        ImageIO.write(img, "png", outFile);
+    private static TextPageRenderer renderer() {
+        return new TextPageRenderer(new Font("Consolas", Font.PLAIN, 14), TextPageRenderer.DEFAULT_LINES_PER_PAGE,
+                Runtime.getRuntime().availableProcessors());
     }
 }
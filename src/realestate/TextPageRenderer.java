@@ -0,0 +1,212 @@
+package realestate;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders text into PNG images a page at a time, for outputs too long for one image.
+ * <p>
+ * Lines are read one by one and cut into pages of a fixed number of lines. Every page is drawn
+ * on a worker thread into its own {@link BufferedImage#TYPE_BYTE_GRAY} image, one byte per
+ * pixel instead of four, sized to its own longest line, and written to its own PNG file. At
+ * most two pages per worker are in progress at a time, so peak memory is bounded by the page
+ * size whatever the length of the text. Line widths are summed from advances measured once per
+ * character rather than measuring every line with {@link FontMetrics#stringWidth}.
+ * <p>
+ * Pages are named {@code <name>-0001.png}, {@code <name>-0002.png} and so on; text that fits
+ * on one page is written to {@code <name>.png}. The time to draw and write each page is logged
+ * and returned.
+ */
+public final class TextPageRenderer {
+
+    private static final Logger log = LoggerConfig.getLogger();
+
+    /** Default number of lines per page. */
+    public static final int DEFAULT_LINES_PER_PAGE = 200;
+
+    private static final int PADDING = 12;
+    private static final int MIN_WIDTH = 300;
+    private static final int MIN_HEIGHT = 200;
+    // Advances of the characters below this are cached; others are rare and measured each time
+    private static final int CACHED_CHARS = 0x800;
+
+    /**
+     * A rendered page.
+     * @param file the PNG file
+     * @param number the page number, from 1
+     * @param firstLine the number of its first line in the text, from 1
+     * @param lines the number of lines on it
+     * @param width its width in pixels
+     * @param height its height in pixels
+     * @param nanos time taken to draw and write it
+     */
+    public record Page(Path file, int number, long firstLine, int lines, int width, int height, long nanos) {}
+
+    private final Font font;
+    private final int linesPerPage;
+    private final int workers;
+    private final FontMetrics metrics;
+    private final int[] advances = new int[CACHED_CHARS];
+
+    /**
+     * Creates a renderer.
+     * @param font the font to draw with
+     * @param linesPerPage lines per page, at least 1
+     * @param workers number of pages drawn at the same time, at least 1
+     */
+    public TextPageRenderer(Font font, int linesPerPage, int workers) {
+        if (linesPerPage < 1) throw new IllegalArgumentException("linesPerPage must be at least 1: " + linesPerPage);
+        if (workers < 1) throw new IllegalArgumentException("workers must be at least 1: " + workers);
+        this.font = font;
+        this.linesPerPage = linesPerPage;
+        this.workers = workers;
+        Graphics2D g = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).createGraphics();
+        g.setFont(font);
+        this.metrics = g.getFontMetrics();
+        g.dispose();
+        Arrays.fill(advances, -1);
+    }
+
+    /**
+     * Renders a text.
+     * @param text the text; lines end at "\n"
+     * @param directory where to write the pages
+     * @param name the file name of the pages, without number and extension
+     * @return the pages, in order
+     * @throws IOException if a page cannot be written
+     */
+    public List<Page> render(String text, Path directory, String name) throws IOException {
+        return render(new BufferedReader(new StringReader(text)), directory, name);
+    }
+
+    /**
+     * Renders the lines of a reader, which is read to the end but not closed.
+     * @param text the text
+     * @param directory where to write the pages
+     * @param name the file name of the pages, without number and extension
+     * @return the pages, in order
+     * @throws IOException if the text cannot be read or a page cannot be written
+     */
+    public List<Page> render(BufferedReader text, Path directory, String name) throws IOException {
+        Files.createDirectories(directory);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Semaphore inProgress = new Semaphore(workers * 2);
+        List<Future<Page>> pages = new ArrayList<>();
+        try {
+            String[] lines = new String[linesPerPage];
+            int count = 0;
+            int width = 0;
+            long firstLine = 1;
+            String line;
+            while ((line = text.readLine()) != null) {
+                lines[count++] = line;
+                width = Math.max(width, width(line));
+                if (count == linesPerPage) {
+                    pages.add(submit(pool, inProgress, directory, name, pages.size() + 1, firstLine, lines, count, width));
+                    firstLine += count;
+                    lines = new String[linesPerPage];
+                    count = 0;
+                    width = 0;
+                }
+            }
+            if (count > 0 || pages.isEmpty()) {
+                pages.add(submit(pool, inProgress, directory, name, pages.size() + 1, firstLine, lines, count, width));
+            }
+            List<Page> done = new ArrayList<>(pages.size());
+            for (Future<Page> page : pages) done.add(page.get());
+            if (done.size() == 1) {
+                Page only = done.get(0);
+                Path single = directory.resolve(name + ".png");
+                Files.move(only.file(), single, StandardCopyOption.REPLACE_EXISTING);
+                done.set(0, new Page(single, 1, 1, only.lines(), only.width(), only.height(), only.nanos()));
+            }
+            return done;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering " + name, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+            throw new IOException("Could not render " + name + ": " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Future<Page> submit(ExecutorService pool, Semaphore inProgress, Path directory, String name, int number,
+                                long firstLine, String[] lines, int count, int textWidth) throws InterruptedException {
+        inProgress.acquire();
+        Path file = directory.resolve(String.format("%s-%04d.png", name, number));
+        return pool.submit(() -> {
+            try {
+                return draw(file, number, firstLine, lines, count, textWidth);
+            } finally {
+                inProgress.release();
+            }
+        });
+    }
+
+    private Page draw(Path file, int number, long firstLine, String[] lines, int count, int textWidth) {
+        long start = System.nanoTime();
+        int lineHeight = metrics.getHeight();
+        int width = Math.max(MIN_WIDTH, textWidth + PADDING * 2);
+        int height = Math.max(MIN_HEIGHT, lineHeight * count + PADDING * 2);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLACK);
+        g.setFont(font);
+        int y = PADDING + metrics.getAscent();
+        for (int i = 0; i < count; i++) {
+            g.drawString(lines[i], PADDING, y);
+            y += lineHeight;
+        }
+        g.dispose();
+        try {
+            ImageIO.write(image, "png", file.toFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Page page = new Page(file, number, firstLine, count, width, height, System.nanoTime() - start);
+        log.info(() -> "Rendered page " + number + " (lines " + firstLine + "-" + (firstLine + count - 1) + ", "
+                + width + "x" + height + ") in " + page.nanos() / 1_000_000 + " ms");
+        return page;
+    }
+
+    /** @return the width of a line in pixels, from the cached character advances */
+    private int width(String line) {
+        int width = 0;
+        for (int i = 0; i < line.length(); ) {
+            int cp = line.codePointAt(i);
+            i += Character.charCount(cp);
+            if (cp < CACHED_CHARS) {
+                int advance = advances[cp];
+                if (advance < 0) advances[cp] = advance = metrics.charWidth(cp);
+                width += advance;
+            } else {
+                width += metrics.charWidth(cp);
+            }
+        }
+        return width;
+    }
+}
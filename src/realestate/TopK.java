@@ -0,0 +1,140 @@
+package realestate;
+
+import java.util.Arrays;
+
+/**
+ * The k best of a stream of (value, id) pairs, in a bounded heap of primitive arrays.
+ * <p>
+ * {@link #largest(int)} keeps the highest values, {@link #smallest(int)} the lowest; among
+ * equal values the lower id wins, so with store ids the earliest added listing is preferred,
+ * as in the store's own order. The worst kept pair is at the top of the heap, so a value that
+ * does not make it is rejected with one comparison, and each offer costs at most O(log k).
+ * Partial results merge, so parts of a stream can be ranked in parallel. Not thread-safe.
+ */
+public final class TopK {
+
+    private final int k;
+    private final boolean largest;
+    private final long[] values;
+    private final int[] ids;
+    private int size;
+
+    private TopK(int k, boolean largest) {
+        if (k < 0) throw new IllegalArgumentException("Negative k: " + k);
+        this.k = k;
+        this.largest = largest;
+        this.values = new long[k];
+        this.ids = new int[k];
+    }
+
+    /**
+     * @param k the number of pairs to keep
+     * @return an empty ranking of the highest values
+     */
+    public static TopK largest(int k) {
+        return new TopK(k, true);
+    }
+
+    /**
+     * @param k the number of pairs to keep
+     * @return an empty ranking of the lowest values
+     */
+    public static TopK smallest(int k) {
+        return new TopK(k, false);
+    }
+
+    /**
+     * Offers a pair.
+     * @param value the value ranked by, such as a total price
+     * @param id the id it belongs to
+     */
+    public void offer(long value, int id) {
+        if (size < k) {
+            values[size] = value;
+            ids[size] = id;
+            siftUp(size++);
+        } else if (k > 0 && before(value, id, values[0], ids[0])) {
+            values[0] = value;
+            ids[0] = id;
+            siftDown(size);
+        }
+    }
+
+    /**
+     * Offers every pair kept by another ranking of the same kind, which is left unchanged.
+     * @param other a ranking of another part of the stream
+     */
+    public void merge(TopK other) {
+        if (other.largest != largest) throw new IllegalArgumentException("Cannot merge largest and smallest rankings");
+        for (int i = 0; i < other.size; i++) offer(other.values[i], other.ids[i]);
+    }
+
+    /** @return the number of pairs kept, at most k */
+    public int size() {
+        return size;
+    }
+
+    /** @return the ids kept, best first */
+    public int[] ids() {
+        int[] order = order();
+        int[] out = new int[size];
+        for (int i = 0; i < size; i++) out[i] = ids[order[i]];
+        return out;
+    }
+
+    /** @return the values kept, best first */
+    public long[] values() {
+        int[] order = order();
+        long[] out = new long[size];
+        for (int i = 0; i < size; i++) out[i] = values[order[i]];
+        return out;
+    }
+
+    /** @return positions of the kept pairs, best first */
+    private int[] order() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> before(values[a], ids[a], values[b], ids[b]) ? -1
+                : before(values[b], ids[b], values[a], ids[a]) ? 1 : 0);
+        int[] out = new int[size];
+        for (int i = 0; i < size; i++) out[i] = order[i];
+        return out;
+    }
+
+    /** @return whether (v1, id1) ranks before (v2, id2) */
+    private boolean before(long v1, int id1, long v2, int id2) {
+        if (v1 != v2) return largest ? v1 > v2 : v1 < v2;
+        return id1 < id2;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(values[parent], ids[parent], values[i], ids[i])) return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int n) {
+        int i = 0;
+        while (true) {
+            int worst = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < n; child++) {
+                if (before(values[worst], ids[worst], values[child], ids[child])) worst = child;
+            }
+            if (worst == i) return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long v = values[i];
+        values[i] = values[j];
+        values[j] = v;
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+}